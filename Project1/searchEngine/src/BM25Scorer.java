@@ -0,0 +1,165 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/** Okapi BM25.  Document lengths, the average length and the postings of
+ * every term are computed once from the index, so a query only walks the
+ * postings of its own terms.
+ *
+ * With relevance information R is the number of known relevant documents
+ * and r the number of those that contain the term; without it both are 0.
+ *
+ * A term's score in a document is its query weight, the relevance weight
+ * times the query frequency part, times its impact, the frequency and
+ * length part.  top() ranks with WAND over the impacts.
+ */
+public class BM25Scorer implements Scorer {
+
+	public static final double DEFAULT_K1 = 1.2;
+	public static final double DEFAULT_B = 0.75;
+	public static final double DEFAULT_K2 = 100;
+
+	private double k1;
+	private double b;
+	private double k2;
+	private double avgdl;
+	private double numDocs;
+	//term -> (document -> frequency)
+	private HashMap<String, HashMap<String, Integer>> postings;
+	private HashMap<String, Double> lengths;
+	private WandIndex wand;
+
+	public BM25Scorer(HashMap<String, HashMap<String, Integer>> index) {
+		this(index, DEFAULT_K1, DEFAULT_B, DEFAULT_K2);
+	}
+
+	public BM25Scorer(HashMap<String, HashMap<String, Integer>> index, double k1, double b, double k2) {
+		this.k1 = k1;
+		this.b = b;
+		this.k2 = k2;
+		this.numDocs = (double) index.size();
+		this.postings = new HashMap<String, HashMap<String, Integer>>();
+		this.lengths = new HashMap<String, Double>();
+
+		//one pass over the index for the lengths and the postings
+		double total = 0.0;
+		for (String doc : index.keySet()) {
+			HashMap<String, Integer> terms = index.get(doc);
+			double docl = 0.0;
+			for (String t : terms.keySet()) {
+				docl += (double) terms.get(t);
+
+				HashMap<String, Integer> docs = postings.get(t);
+				if (docs == null) {
+					docs = new HashMap<String, Integer>();
+					postings.put(t, docs);
+				}
+				docs.put(doc, terms.get(t));
+			}
+			lengths.put(doc, Double.valueOf(docl));
+			total += docl;
+		}
+		this.avgdl = (numDocs > 0) ? total / numDocs : 0.0;
+	}
+
+	public double getAverageLength() {
+		return avgdl;
+	}
+
+	//number of documents the term appears in
+	public int docFreq(String t) {
+		HashMap<String, Integer> docs = postings.get(t);
+		return (docs == null) ? 0 : docs.size();
+	}
+
+	//relevance weight of a term, the log part of the formula
+	double weight(double ni, double bigr, double r) {
+		return Math.log( ( ((r+0.5)/(bigr-r+0.5)) /((ni-r+0.5) / ( numDocs-ni-bigr+r+0.5 ))));
+	}
+
+	@Override
+	public HashMap<String, Double> score(HashMap<String, Integer> query) {
+		return score(query, null);
+	}
+
+	/**
+	 * Scores the documents that contain a query term.  relevant holds the
+	 * documents known to be relevant, or null if there are none.
+	 */
+	public HashMap<String, Double> score(HashMap<String, Integer> query, Set<String> relevant) {
+		HashMap<String, Double> ranks = new HashMap<String, Double>();
+		HashMap<String, Double> weights = queryWeights(query, relevant);
+
+		for (String qtok : weights.keySet()) {
+			HashMap<String, Integer> docs = postings.get(qtok);
+			double qweight = weights.get(qtok).doubleValue();
+
+			for (String doc : docs.keySet()) {
+				Double sum = ranks.get(doc);
+				double s = (sum == null) ? 0.0 : sum.doubleValue();
+				ranks.put(doc, Double.valueOf(s + impact(doc, docs.get(doc).doubleValue()) * qweight));
+			}
+		}
+		return ranks;
+	}
+
+	//the best k documents, the same as the top k of score but documents that cannot make it are skipped
+	public ArrayList<String> top(HashMap<String, Integer> query, Set<String> relevant, int k) {
+		return wandIndex().top(queryWeights(query, relevant), k);
+	}
+
+	/**
+	 * term -> weight of every query term in the index, in the query's order:
+	 * the relevance weight times ((k2+1)*qf) / (k2+qf).
+	 */
+	public LinkedHashMap<String, Double> queryWeights(HashMap<String, Integer> query, Set<String> relevant) {
+		LinkedHashMap<String, Double> weights = new LinkedHashMap<String, Double>();
+		double bigr = (relevant == null) ? 0.0 : (double) relevant.size();
+
+		for (String qtok : query.keySet()) {
+			HashMap<String, Integer> docs = postings.get(qtok);
+			if (docs == null) {
+				continue;
+			}
+
+			double ni = (double) docs.size();
+			double r = 0.0;
+			if (relevant != null) {
+				for (String doc : relevant) {
+					if (docs.containsKey(doc)) {
+						r += 1;
+					}
+				}
+			}
+			double qfi = query.get(qtok); //frequency of term in query
+			double w = weight(ni, bigr, r);
+			double qw = ((k2+1)*qfi) / (k2+qfi);
+			weights.put(qtok, Double.valueOf(w * qw));
+		}
+		return weights;
+	}
+
+	//the frequency and length part of the formula for a document with the term fi times
+	double impact(String doc, double fi) {
+		double bigk = k1*((1-b)+(b*(lengths.get(doc).doubleValue()/avgdl)));
+		return ((k1+1)*fi) / (bigk+fi);
+	}
+
+	//postings of the impacts sorted by document, built the first time top is called
+	public synchronized WandIndex wandIndex() {
+		if (wand == null) {
+			HashMap<String, HashMap<String, Double>> impacts = new HashMap<String, HashMap<String, Double>>();
+			for (String t : postings.keySet()) {
+				HashMap<String, Integer> docs = postings.get(t);
+				HashMap<String, Double> weights = new HashMap<String, Double>();
+				for (String doc : docs.keySet()) {
+					weights.put(doc, Double.valueOf(impact(doc, docs.get(doc).doubleValue())));
+				}
+				impacts.put(t, weights);
+			}
+			wand = new WandIndex(impacts);
+		}
+		return wand;
+	}
+}
@@ -1,27 +1,27 @@
 import java.io.*;
 import java.util.*;
 
-import org.apache.lucene.analysis.Analyzer.TokenStreamComponents;
-import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.util.CharArraySet;
-import org.apache.lucene.analysis.en.PorterStemFilter;
 
 public class OurSearchEngine {
 	
 	private HashMap<String,HashMap<String,Integer>> index;
 	private String indexfile;
-	private MyAnalyzer analyzer;
+	//queries may be tokenized on several threads, each one gets its own analyzer
+	private ThreadLocal<MyAnalyzer> analyzers;
 	private String docPath;
 	private HashMap<String,HashMap<String,Double>> tfidf;
 	private HashMap<String, HashMap<String,Double>> failureAnalysis;
+	private int queryThreads = Runtime.getRuntime().availableProcessors();
+	private boolean pruning;
+	private WandIndex wand;
 	boolean print;
 	
 	public OurSearchEngine() {
 		index = new HashMap<String,HashMap<String,Integer>>();
 		
 		//need stopwords
-		CharArraySet stopwords = new CharArraySet(0, false);
+		final CharArraySet stopwords = new CharArraySet(0, false);
 		String stopwordfile = "data/stopwords/stopwords_indri.txt";
 		try {
 			BufferedReader swr = new BufferedReader(new FileReader(stopwordfile));
@@ -34,10 +34,39 @@ public class OurSearchEngine {
 			System.out.println("Could not read the stop word file");
 		}
 				
-		analyzer = new MyAnalyzer(stopwords);
+		analyzers = new ThreadLocal<MyAnalyzer>() {
+			@Override
+			protected MyAnalyzer initialValue() {
+				return new MyAnalyzer(stopwords);
+			}
+		};
 		failureAnalysis = new HashMap<String, HashMap<String,Double>>();
 	}
 	
+	//threads used to run the queries of evaluate and bm25
+	public void setQueryThreads(int threads) {
+		queryThreads = threads;
+	}
+	
+	/**
+	 * Ranks the top K document at a time with WAND, skipping documents that
+	 * cannot make it, instead of scoring every document with a query term.
+	 * The results are the same, priority() also puts documents with the same
+	 * score in name order; comparePruning() checks it.  Takes effect the next
+	 * time evaluate() or bm25() runs.
+	 */
+	public void setPruning(boolean pruning) {
+		this.pruning = pruning;
+	}
+	
+	/**
+	 * Runs the task for every query.  Once the index and tfidf are set the
+	 * engine is only read, so the queries can run at the same time.
+	 */
+	<T> LinkedHashMap<Integer,T> runQueries(Map<Integer,String> queries, QueryRunner.Task<T> task) {
+		return new QueryRunner(queryThreads).run(queries, task);
+	}
+	
 	public HashMap<String,Integer> getTerms(String doc) {
 		return index.get(doc);
 	}
@@ -75,7 +104,8 @@ public class OurSearchEngine {
 		index = new HashMap<String,HashMap<String,Integer>>();
 		this.indexDocs(docDir);
 		
-		analyzer.close();
+		analyzers.get().close();
+		analyzers.remove();
 		
 		//save index
 		File iFile = new File(indexfile);
@@ -98,45 +128,8 @@ public class OurSearchEngine {
 	}
 	
 	HashMap<String,Integer> tokenize(Reader reader) {
-		// make a new, empty document
-		HashMap<String,Integer> terms = new HashMap<String,Integer>();
-		
 		//tokenize, remove stop words, and stem
-		TokenStreamComponents tsc = analyzer.createComponents("contents",reader);
-		TokenStream ts = tsc.getTokenStream();
-		PorterStemFilter psf = new PorterStemFilter(ts);
-		CharTermAttribute cattr = psf.addAttribute(CharTermAttribute.class);
-		try {
-			psf.reset();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			while (psf.incrementToken()) {
-			  String t = cattr.toString();
-			  Integer v = terms.get(t);
-			  if (v!=null) {
-				  terms.put(t, new Integer(v.intValue() + 1));
-			  }
-			  else {
-				  terms.put(t, new Integer(1));
-			  }
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			psf.end();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			psf.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		
-		return terms;
+		return analyzers.get().countTerms(reader);
 	}
 	
 	
@@ -288,48 +281,31 @@ public class OurSearchEngine {
 		return 0.0;
 	}
 	
-	static LinkedList<String> priority(HashMap<String, Double> ranks, int k){
-		DocumentComparator dc = new DocumentComparator();
-		//Our original attempt with the priority queue to get O(n * log(k))
-		/*PriorityQueue<Document> results = new PriorityQueue<Document>(100, dc);
-		for (String doc : ranks.keySet()) {
-			double r = ranks.get(doc).doubleValue();
-			if (results.size() >= k){
-				if (r > results.peek().getRank()){
-					results.poll();
-					results.add(new Document(doc, r));
-				}
-			}
-			else {
-				results.add(new Document(doc, r));
-			}
-		}
-		
-		LinkedList<String> resultDocuments = new LinkedList<String>();
-		while(!results.isEmpty()) {
-			Document d = results.remove();
-			resultDocuments.add(d.getName());
-		}*/
+	//top k documents for the query under another retrieval model, e.g. BM25Scorer
+	ArrayList<String> getResults(String query, Scorer scorer, int k) {
+		//stemming and stopping
+		StringReader reader = new StringReader(query);
+		HashMap<String,Integer> tokens = tokenize(reader);
 		
-		//Sorting O(n * log(n))
-		Document[] docs = new Document[ranks.size()];
-		int i = 0;
-		for (String doc : ranks.keySet()) {
-			Document d = new Document(doc,ranks.get(doc).doubleValue());
-			docs[i] = d;
-			i++;
+		//with pruning BM25 skips the documents that cannot make the top k
+		if (pruning && scorer instanceof BM25Scorer) {
+			return ((BM25Scorer) scorer).top(tokens, null, k);
 		}
-		Arrays.sort(docs, dc);
-		
-		LinkedList<String> resultDocuments = new LinkedList<String>();
-		for(int j=0; j<Math.min(k, docs.length); j++){
-			resultDocuments.add(docs[j].getName());
+		return priority(scorer.score(tokens), k);
+	}
+	
+	static ArrayList<String> priority(HashMap<String, Double> ranks, int k){
+		//Heap of the best k O(n * log(k)), ties in name order as with WAND
+		TopKCollector top = new TopKCollector(k, true);
+		for (String doc : ranks.keySet()) {
+			top.collect(new Document(doc, ranks.get(doc).doubleValue()));
 		}
 
-		return resultDocuments;
+		return top.getResults();
 	}
 	
-	LinkedList<String> getResults(String query, HashMap<String,HashMap<String,Double>> normalizedDocs, char q0, char q1, char q2, int k) {
+	//normalized query vector, term -> weight
+	HashMap<String,Double> queryVector(String query, char q0, char q1, char q2) {
 		//stemming and stopping
 		StringReader reader = new StringReader(query);
 		HashMap<String,Integer> tokens = tokenize(reader);
@@ -343,37 +319,15 @@ public class OurSearchEngine {
 		}
 		
 		//normalization
-		HashMap<String,Double> normalizedQueries = normalize(q2, queryVector);
-		
-		//scores
+		return normalize(q2, queryVector);
+	}
+	
+	//scores every document in the postings of the query terms
+	HashMap<String, Double> rank(HashMap<String,Double> normalizedQueries) {
 		HashMap<String, Double> ranks = new HashMap<String, Double>();
 		
-		//comment out to run with inverted tfidf
+		//uses the inverted index, only documents that contain a query term get a score
 		for (String t : normalizedQueries.keySet()) {
-			Double qScore = normalizedQueries.get(t);
-			if (qScore != null) {
-				for (String d : normalizedDocs.keySet()) {
-					HashMap<String,Double> scores = normalizedDocs.get(d);
-					if (!ranks.containsKey(d)) {
-						ranks.put(d, new Double(0));
-					}
-							
-					Double s = scores.get(t);
-					if (s != null) {
-						Double r = ranks.get(d);
-						double r2 = 0;
-						if (r != null) {
-							r2 = r.doubleValue();
-						}
-						ranks.put(d, new Double(r2 + s.doubleValue()*qScore.doubleValue()));
-					}
-				}
-			}
-		}
-		
-		//uses the inverted index
-		//uncomment out to run inverted index
-		/*for (String t : normalizedQueries.keySet()) {
 			Double qScore = normalizedQueries.get(t);
 			HashMap<String, Double> docs = tfidf.get(t);
 			if (docs != null){
@@ -387,9 +341,22 @@ public class OurSearchEngine {
 					ranks.put(d, new Double(r2 + dScore.doubleValue()*qScore.doubleValue()));
 				}
 			}
-		}*/
+		}
+		return ranks;
+	}
+	
+	ArrayList<String> getResults(String query, HashMap<String,HashMap<String,Double>> normalizedDocs, char q0, char q1, char q2, int k) {
+		HashMap<String,Double> normalizedQueries = queryVector(query, q0, q1, q2);
 		
-		LinkedList<String> top = priority(ranks, k);
+		//document at a time over postings sorted by document
+		if (wand != null) {
+			return wand.top(normalizedQueries, k);
+		}
+		
+		//scores
+		HashMap<String, Double> ranks = rank(normalizedQueries);
+		
+		ArrayList<String> top = priority(ranks, k);
 		
 		//Failure Analysis
 		/*if (print) {
@@ -403,7 +370,7 @@ public class OurSearchEngine {
 				System.out.print(doc + ":" + ranks.get(doc).doubleValue() + " ");
 			}
 			System.out.println("");
-			String topDoc = top.getFirst();
+			String topDoc = top.get(0);
 			if (topDoc !=null) {
 				System.out.println("Top Doc Vector:");
 				HashMap<String,Double> words = normalizedDocs.get(topDoc);
@@ -415,15 +382,15 @@ public class OurSearchEngine {
 		return top;
 	}
 	
-	public static void evaluate(OurSearchEngine ose, String docDir, String indexDir,
-			           String queryFile, String answerFile, int numResults, char[] weights) {
+	public static void evaluate(final OurSearchEngine ose, String docDir, String indexDir,
+			           String queryFile, String answerFile, final int numResults, char[] weights) {
 		//get weights
 		char d0 = weights[0];
 		char d1 = weights[1];
 		char d2 = weights[2];
-		char q0 = weights[3];
-		char q1 = weights[4];
-		char q2 = weights[5];
+		final char q0 = weights[3];
+		final char q1 = weights[4];
+		final char q2 = weights[5];
 		
 		System.out.println("" + d0 + d1  + d2 + "." + q0 + q1 + q2);
 		
@@ -459,7 +426,7 @@ public class OurSearchEngine {
 		// load queries and answer
 		System.out.println("Loading queries and answers...");
 		Map<Integer, String> queries = EvaluateQueries.loadQueries(queryFile);
-		Map<Integer, HashSet<String>> queryAnswers = EvaluateQueries.loadAnswers(answerFile);
+		final Map<Integer, HashSet<String>> queryAnswers = EvaluateQueries.loadAnswers(answerFile);
 		
 		//calculating tfidf for documents
 		System.out.println("Calculating tfidf for documents...");
@@ -480,11 +447,9 @@ public class OurSearchEngine {
 		
 		//normalize the documents
 		System.out.println("Normalize documents...");
-		HashMap<String,HashMap<String,Double>> normalizedDocs = ose.normalizeIndex(d2, docVector);
+		final HashMap<String,HashMap<String,Double>> normalizedDocs = ose.normalizeIndex(d2, docVector);
 		
-		//invert index to speed up idf calculations for queries
-		//This part is not necessary.  We have commented out code in getResults() that will run with this
-		//If you uncomment it, it should speed up query time processing
+		//invert index so getResults() only walks the postings of the query terms
 		System.out.println("Inverting index...");
 		HashMap<String,HashMap<String,Double>> tfidf = new HashMap<String,HashMap<String,Double>>();
 		for (String doc: normalizedDocs.keySet()) {
@@ -499,18 +464,23 @@ public class OurSearchEngine {
 			}
 		}
 		ose.tfidf = tfidf;
+		ose.wand = ose.pruning ? new WandIndex(tfidf) : null;
 		
 		// Search and evaluate
 		System.out.println("Evaluating...");
 		double averageSum = 0;
-		for (Integer i : queries.keySet()) {
-			String type = new String(weights);
-			//For failure analysis
-			if ((type.equals("atnatn") && i.intValue()==16 || (type.equals("annbpn") && i.intValue()==20))) {
-				ose.print = true;
+		LinkedHashMap<Integer, Double> evaluated = ose.runQueries(queries, new QueryRunner.Task<Double>() {
+			@Override
+			public Double run(Integer i, String query) {
+				ArrayList<String> results = ose.getResults(query, normalizedDocs, q0, q1,q2, numResults);
+				return Double.valueOf(EvaluateQueries.averagePrecision(queryAnswers.get(i), results));
 			}
-			LinkedList<String> results = ose.getResults(queries.get(i), normalizedDocs, q0, q1,q2, numResults);
-			double ap = EvaluateQueries.averagePrecision(queryAnswers.get(i), results);
+		});
+		
+		//add up in query order, failureAnalysis is only written here
+		String type = new String(weights);
+		for (Integer i : evaluated.keySet()) {
+			double ap = evaluated.get(i).doubleValue();
 			averageSum += ap;
 			
 			//For failure analysis
@@ -519,13 +489,16 @@ public class OurSearchEngine {
 			}
 			HashMap<String,Double> failureValues = ose.failureAnalysis.get(queries.get(i));
 			failureValues.put(type, new Double(ap));
-			ose.print = false;
 		}
 				
 		System.out.printf("MAP: %f\n\n", averageSum / queries.size());
 	}
 
 	public static void bm25(OurSearchEngine ose, String docDir, String indexDir, String query, String answerfile){
+		bm25(ose, docDir, indexDir, query, answerfile, BM25Scorer.DEFAULT_K1, BM25Scorer.DEFAULT_B, BM25Scorer.DEFAULT_K2);
+	}
+	
+	public static void bm25(final OurSearchEngine ose, String docDir, String indexDir, String query, String answerfile, double k1, double b, double k2){
 		System.out.println("Starting bm25...");
 		//Try to load index
 				File f = new File(indexDir + "/index");
@@ -561,86 +534,25 @@ public class OurSearchEngine {
 		Map<Integer, String> queries = EvaluateQueries.loadQueries(query);
 		Map<Integer, HashSet<String>> queryAnswers = EvaluateQueries.loadAnswers(answerfile);
 		
-		//tokenize each query
-		HashMap<Integer, HashMap<String,Integer>> tokq = new HashMap<Integer, HashMap<String,Integer>>();
-		for(Integer i : queries.keySet()){
-			StringReader reader = new StringReader(queries.get(i));
-			tokq.put(i, ose.tokenize(reader));
-		}
 		System.out.println("Computing Avg Doc Length...");
-		//computing avg doc length
-		double avgdl=0.0;
-		for(String s: ose.index.keySet()){
-			for(String t: ose.index.get(s).keySet()){
-				avgdl+= ose.index.get(s).get(t);
-			}
-
-		}
-		avgdl=avgdl/ose.index.size();
-		System.out.println("Average document length: " + avgdl);
-		//given constants
-		double b=0.75;
-		double k1=1.2;
-		double k2=100;
-		double big_n=(double)ose.index.size();
-		double bigr=0.0;
-		double r=0.0;
-		//constants to be computing for each query
-		double ni=0.0;
-		double fi=0.0; //given in index hashMap
-		double qfi=0.0; //given in tokq hashMap
-		double bigk=0.0;
-		double docl=0.0;
-		double bmsum=0;
+		//doc lengths, avgdl and the postings are computed once instead of for every query
+		final BM25Scorer scorer = new BM25Scorer(ose.index, k1, b, k2);
+		System.out.println("Average document length: " + scorer.getAverageLength());
 		
 		System.out.println("Computing BM25 Score...");
-		HashMap<Integer, HashMap<String, Double>> bm = new HashMap<Integer, HashMap<String,Double>>();
-		//for each query go through each document and compute bm25 similarity 
-		for(Integer i : tokq.keySet()){
-			//hashMap that will score each doc and its bm25 score for a query
-			HashMap<String, Double> inner = new HashMap<String, Double>();
-			//going through each doc
-			for(String doc: ose.index.keySet()){
-				//resetting constants
-				bmsum=0;
-				docl=0;
-				bigk=0;
-				//computing doc length
-				for(String t: ose.index.get(doc).keySet()){
-					docl+=(double) ose.index.get(doc).get(t);
-				}
-				//calculating big K for document doc
-				bigk=k1*((1-b)+(b*(docl/avgdl)));
-				//going through each term of the query
-				for(String qtok: tokq.get(i).keySet()){
-					ni=0;
-					fi=0;
-					qfi=tokq.get(i).get(qtok); //frequency of term in query
-					//get frequency of term in document if it exists
-					if(ose.index.get(doc).containsKey(qtok)){
-						fi=ose.index.get(doc).get(qtok);
-					}
-					//going through each document to see if the term is in it to find number of docs term is in
-					for(String s : ose.index.keySet()){
-						if(ose.index.get(s).containsKey(qtok)){
-							ni+=1;
-						}
-					}
-					//adding BM25 for each term in the query
-					bmsum+=Math.log( ( ((r+0.5)/(bigr-r+0.5)) /((ni-r+0.5) / ( big_n-ni-bigr+r+0.5 )))) * (((k1+1)*fi) / (bigk+fi)) * ( ((k2+1)*qfi) / (k2+qfi)) ;
-				}
-				//adding each doc and its bm25 score to a hashMap
-				inner.put(doc, Double.valueOf(bmsum));
+		//for each query only the documents in the postings of its terms get a bm25 score, the queries run on several threads
+		LinkedHashMap<Integer, ArrayList<String>> bm = ose.runQueries(queries, new QueryRunner.Task<ArrayList<String>>() {
+			@Override
+			public ArrayList<String> run(Integer i, String query) {
+				return ose.getResults(query, scorer, 100);
 			}
-			//adding each query and its hashMap of docs and bm25 scores to a hashMap
-			bm.put(i, inner);
-		}
+		});
 		
 		System.out.println("Computing BM25 MAP...");
 		double averageSum = 0;
 		//computing averagePrecision and summing
 		for (Integer i : bm.keySet()) {
-			LinkedList<String> top = priority(bm.get(i), 100);
+			ArrayList<String> top = bm.get(i);
 			double ap = EvaluateQueries.averagePrecision( queryAnswers.get(i) , top);
 			averageSum += ap;
 			
@@ -655,13 +567,70 @@ public class OurSearchEngine {
 				System.out.println("Query: " + i);
 				System.out.println("Results:");
 				for (String doc : top) {
-					System.out.print(doc + ":" + bm.get(i).get(doc).doubleValue() + " ");
+					System.out.print(doc + ":" + scorer.score(ose.tokenize(new StringReader(queries.get(i)))).get(doc).doubleValue() + " ");
 				}
 			}*/
 		}
 		System.out.println("BM25 MAP: " + (averageSum / (double) queries.size()) + "\n");
 		
 	}
+	/**
+	 * Runs evaluate() with pruning on, then ranks every query both with WAND
+	 * and by scoring every posting, and prints how many queries got a
+	 * different top k and how many postings each way scored.
+	 */
+	public static void comparePruning(OurSearchEngine ose, String docDir, String indexDir,
+			           String queryFile, String answerFile, int numResults, char[] weights) {
+		boolean pruning = ose.pruning;
+		ose.setPruning(true);
+		evaluate(ose, docDir, indexDir, queryFile, answerFile, numResults, weights);
+		ose.setPruning(pruning);
+		
+		Map<Integer, String> queries = EvaluateQueries.loadQueries(queryFile);
+		long before = ose.wand.getPostingsScored();
+		long postings = 0;
+		int differ = 0;
+		for (Integer i : queries.keySet()) {
+			HashMap<String,Double> normalizedQueries = ose.queryVector(queries.get(i), weights[3], weights[4], weights[5]);
+			ArrayList<String> pruned = ose.wand.top(normalizedQueries, numResults);
+			ArrayList<String> exhaustive = priority(ose.rank(normalizedQueries), numResults);
+			if (!pruned.equals(exhaustive)) {
+				System.out.println("Query " + i + " differs:\n  wand       " + pruned + "\n  exhaustive " + exhaustive);
+				differ++;
+			}
+			for (String t : normalizedQueries.keySet()) {
+				postings += ose.wand.docFreq(t);
+			}
+		}
+		System.out.println(new String(weights) + ": " + differ + " of " + queries.size() + " queries differ, postings scored "
+				+ (ose.wand.getPostingsScored() - before) + " of " + postings + "\n");
+	}
+	
+	//the same as comparePruning for bm25()
+	public static void comparePruningBm25(OurSearchEngine ose, String docDir, String indexDir, String queryFile, String answerFile) {
+		//loads or builds the index
+		bm25(ose, docDir, indexDir, queryFile, answerFile);
+		
+		BM25Scorer scorer = new BM25Scorer(ose.index);
+		Map<Integer, String> queries = EvaluateQueries.loadQueries(queryFile);
+		long postings = 0;
+		int differ = 0;
+		for (Integer i : queries.keySet()) {
+			HashMap<String,Integer> tokens = ose.tokenize(new StringReader(queries.get(i)));
+			ArrayList<String> pruned = scorer.top(tokens, null, 100);
+			ArrayList<String> exhaustive = priority(scorer.score(tokens), 100);
+			if (!pruned.equals(exhaustive)) {
+				System.out.println("Query " + i + " differs:\n  wand       " + pruned + "\n  exhaustive " + exhaustive);
+				differ++;
+			}
+			for (String t : tokens.keySet()) {
+				postings += scorer.wandIndex().docFreq(t);
+			}
+		}
+		System.out.println("bm25: " + differ + " of " + queries.size() + " queries differ, postings scored "
+				+ scorer.wandIndex().getPostingsScored() + " of " + postings + "\n");
+	}
+	
 	public static void main(String[] arg) {
 		String cacmDocsDir = "data/cacm"; // directory containing CACM documents
 		String cacmIndexDir = "data/index/cacm2"; // the directory where index is written into
@@ -681,6 +650,21 @@ public class OurSearchEngine {
 		
 		OurSearchEngine ose = new OurSearchEngine();
 		
+		//-compare ranks with and without WAND and prints the differences instead
+		if (arg.length > 0 && arg[0].equals("-compare")) {
+			char[][] schemes = {s1, s2, s3, s4};
+			System.out.println("CACM");
+			for (char[] s : schemes) {
+				comparePruning(ose, cacmDocsDir, cacmIndexDir, cacmQueries, cacmAnswers, 100, s);
+			}
+			comparePruningBm25(ose, cacmDocsDir, cacmIndexDir, cacmQueries, cacmAnswers);
+			System.out.println("MED");
+			for (char[] s : schemes) {
+				comparePruning(ose, medDocsDir, medIndexDir, medQueries, medAnswers, 100, s);
+			}
+			comparePruningBm25(ose, medDocsDir, medIndexDir, medQueries, medAnswers);
+			return;
+		}
 		
 		System.out.println("CACM");
 		evaluate(ose, cacmDocsDir, cacmIndexDir, cacmQueries, cacmAnswers, 100, s1);
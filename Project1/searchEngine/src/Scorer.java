@@ -0,0 +1,8 @@
+import java.util.HashMap;
+
+/** A retrieval model that scores documents for an already tokenized query.
+ * Only documents that contain at least one query term get a score.
+ */
+public interface Scorer {
+	HashMap<String, Double> score(HashMap<String, Integer> query);
+}
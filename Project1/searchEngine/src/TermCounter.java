@@ -0,0 +1,125 @@
+import java.util.HashMap;
+
+/** Counts terms straight off a token's char buffer.  A term's chars are
+ * copied only the first time it is seen, so repeated tokens allocate
+ * nothing.  Meant to be cleared and reused for every document.
+ */
+public class TermCounter {
+
+	private char[][] keys;
+	private int[] lengths;
+	private int[] hashes;
+	private int[] counts;
+	//slots in the order their terms were first seen
+	private int[] order;
+	private int size;
+
+	public TermCounter() {
+		this(64);
+	}
+
+	public TermCounter(int capacity) {
+		int c = 16;
+		while (c < capacity) {
+			c <<= 1;
+		}
+		keys = new char[c][];
+		lengths = new int[c];
+		hashes = new int[c];
+		counts = new int[c];
+		order = new int[c];
+		size = 0;
+	}
+
+	//number of different terms
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			int slot = order[i];
+			//the char arrays are kept so the next document can reuse them
+			counts[slot] = 0;
+		}
+		size = 0;
+	}
+
+	public void add(char[] buffer, int length) {
+		int h = 0;
+		for (int i = 0; i < length; i++) {
+			h = 31 * h + buffer[i];
+		}
+
+		int mask = keys.length - 1;
+		int slot = (h ^ (h >>> 16)) & mask;
+		while (counts[slot] != 0) {
+			if (hashes[slot] == h && lengths[slot] == length && equals(keys[slot], buffer, length)) {
+				counts[slot]++;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		if (keys[slot] == null || keys[slot].length < length) {
+			keys[slot] = new char[Math.max(length, 8)];
+		}
+		System.arraycopy(buffer, 0, keys[slot], 0, length);
+		lengths[slot] = length;
+		hashes[slot] = h;
+		counts[slot] = 1;
+		order[size++] = slot;
+
+		//keep the table at most half full
+		if (size * 2 > keys.length) {
+			rehash(keys.length * 2);
+		}
+	}
+
+	private static boolean equals(char[] key, char[] buffer, int length) {
+		for (int i = 0; i < length; i++) {
+			if (key[i] != buffer[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void rehash(int capacity) {
+		char[][] oldKeys = keys;
+		int[] oldLengths = lengths;
+		int[] oldHashes = hashes;
+		int[] oldCounts = counts;
+		int[] oldOrder = order;
+
+		keys = new char[capacity][];
+		lengths = new int[capacity];
+		hashes = new int[capacity];
+		counts = new int[capacity];
+		order = new int[capacity];
+
+		int mask = capacity - 1;
+		for (int i = 0; i < size; i++) {
+			int old = oldOrder[i];
+			int slot = (oldHashes[old] ^ (oldHashes[old] >>> 16)) & mask;
+			while (counts[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = oldKeys[old];
+			lengths[slot] = oldLengths[old];
+			hashes[slot] = oldHashes[old];
+			counts[slot] = oldCounts[old];
+			order[i] = slot;
+		}
+	}
+
+	//the counts as a map, terms put in the order they were first seen
+	public HashMap<String,Integer> toMap() {
+		HashMap<String,Integer> terms = new HashMap<String,Integer>();
+		for (int i = 0; i < size; i++) {
+			int slot = order[i];
+			terms.put(new String(keys[slot], 0, lengths[slot]), Integer.valueOf(counts[slot]));
+		}
+		return terms;
+	}
+}
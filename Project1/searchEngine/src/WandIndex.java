@@ -0,0 +1,218 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Postings sorted by document id, with the largest and smallest weight of
+ * every term, for document at a time top K retrieval with WAND.  A document
+ * scores the sum of query weight * posting weight over the query terms it
+ * has, the same as walking every posting, but a document is only scored
+ * when the upper bounds of the terms it can have are more than the k-th
+ * best score so far; the postings before it are skipped.
+ *
+ * The scores are the exhaustive ones: a document's terms are added in the
+ * query's order.  Documents with the same score come in name order.
+ */
+public class WandIndex {
+	//upper bounds are raised by this much so rounding never prunes a document
+	private static final double SLACK = 1e-9;
+
+	private String[] names;
+	private HashMap<String, int[]> postingDocs;
+	private HashMap<String, double[]> postingWeights;
+	private HashMap<String, double[]> bounds;
+	private AtomicLong scored = new AtomicLong();
+	private AtomicLong postingsScored = new AtomicLong();
+
+	//postings is term -> (document -> weight), e.g. the tfidf of OurSearchEngine
+	public WandIndex(HashMap<String, HashMap<String, Double>> postings) {
+		//document ids in name order
+		HashMap<String, Integer> ids = new HashMap<String, Integer>();
+		for (HashMap<String, Double> docs : postings.values()) {
+			for (String doc : docs.keySet()) {
+				ids.put(doc, null);
+			}
+		}
+		names = ids.keySet().toArray(new String[ids.size()]);
+		Arrays.sort(names);
+		for (int d = 0; d < names.length; d++) {
+			ids.put(names[d], Integer.valueOf(d));
+		}
+
+		postingDocs = new HashMap<String, int[]>();
+		postingWeights = new HashMap<String, double[]>();
+		bounds = new HashMap<String, double[]>();
+		double[] dense = new double[names.length];
+		for (String t : postings.keySet()) {
+			HashMap<String, Double> docs = postings.get(t);
+			int[] list = new int[docs.size()];
+			int n = 0;
+			for (String doc : docs.keySet()) {
+				int d = ids.get(doc).intValue();
+				list[n++] = d;
+				dense[d] = docs.get(doc).doubleValue();
+			}
+			Arrays.sort(list);
+			double[] weights = new double[n];
+			double max = Double.NEGATIVE_INFINITY;
+			double min = Double.POSITIVE_INFINITY;
+			for (int i = 0; i < n; i++) {
+				weights[i] = dense[list[i]];
+				max = Math.max(max, weights[i]);
+				min = Math.min(min, weights[i]);
+			}
+			postingDocs.put(t, list);
+			postingWeights.put(t, weights);
+			bounds.put(t, new double[] {min, max});
+		}
+	}
+
+	public int numDocs() {
+		return names.length;
+	}
+
+	//number of documents that contain the term
+	public int docFreq(String t) {
+		int[] docs = postingDocs.get(t);
+		return (docs == null) ? 0 : docs.length;
+	}
+
+	//documents and postings scored by top since the index was built
+	public long getScored() {
+		return scored.get();
+	}
+
+	public long getPostingsScored() {
+		return postingsScored.get();
+	}
+
+	/**
+	 * The best k documents for the query, term -> query weight.  Only
+	 * documents that contain a query term are ranked, as when every posting
+	 * of the query terms is scored.
+	 */
+	public ArrayList<String> top(HashMap<String, Double> query, int k) {
+		//one cursor per query term with postings, in the query's order
+		int numTerms = 0;
+		int[][] docs = new int[query.size()][];
+		double[][] weights = new double[query.size()][];
+		double[] q = new double[query.size()];
+		double[] upper = new double[query.size()];
+		for (String t : query.keySet()) {
+			int[] list = postingDocs.get(t);
+			if (list == null) {
+				continue;
+			}
+			double w = query.get(t).doubleValue();
+			double[] mm = bounds.get(t);
+			//a term can add at most this, and a document without it gets 0
+			double best = Math.max(w * mm[0], w * mm[1]);
+			docs[numTerms] = list;
+			weights[numTerms] = postingWeights.get(t);
+			q[numTerms] = w;
+			upper[numTerms] = Math.max(0.0, best) * (1 + SLACK);
+			numTerms++;
+		}
+
+		int[] pos = new int[numTerms];
+		//cursors that are not at the end, ordered by their current document
+		int[] order = new int[numTerms];
+		int live = 0;
+		for (int c = 0; c < numTerms; c++) {
+			order[live++] = c;
+		}
+
+		TopKCollector top = new TopKCollector(k);
+		long numScored = 0;
+		long numPostings = 0;
+		while (live > 0) {
+			sort(order, live, docs, pos);
+			double threshold = top.threshold();
+
+			//pivot: first cursor where the bounds so far can beat the k-th score
+			double sum = 0.0;
+			int pivot = -1;
+			for (int i = 0; i < live; i++) {
+				sum += upper[order[i]];
+				if (sum > threshold) {
+					pivot = i;
+					break;
+				}
+			}
+			if (pivot == -1) {
+				break;
+			}
+			int pivotDoc = docs[order[pivot]][pos[order[pivot]]];
+
+			if (docs[order[0]][pos[order[0]]] == pivotDoc) {
+				//every cursor before the pivot is on it, score it in query order
+				double score = 0.0;
+				for (int c = 0; c < numTerms; c++) {
+					if (pos[c] < docs[c].length && docs[c][pos[c]] == pivotDoc) {
+						score += weights[c][pos[c]] * q[c];
+						pos[c]++;
+						numPostings++;
+					}
+				}
+				numScored++;
+				top.collect(new Document(names[pivotDoc], score));
+			}
+			else {
+				//no document before the pivot document can make the top k
+				for (int i = 0; i < pivot; i++) {
+					int c = order[i];
+					pos[c] = advance(docs[c], pos[c], pivotDoc);
+				}
+			}
+
+			//drop the cursors at the end
+			int n = 0;
+			for (int i = 0; i < live; i++) {
+				if (pos[order[i]] < docs[order[i]].length) {
+					order[n++] = order[i];
+				}
+			}
+			live = n;
+		}
+		scored.addAndGet(numScored);
+		postingsScored.addAndGet(numPostings);
+		return top.getResults();
+	}
+
+	//insertion sort of the live cursors by current document, they are nearly sorted already
+	private static void sort(int[] order, int live, int[][] docs, int[] pos) {
+		for (int i = 1; i < live; i++) {
+			int c = order[i];
+			int d = docs[c][pos[c]];
+			int j = i - 1;
+			while (j >= 0 && docs[order[j]][pos[order[j]]] > d) {
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = c;
+		}
+	}
+
+	//first position at or after from whose document is at least target, galloping then binary search
+	private static int advance(int[] list, int from, int target) {
+		int step = 1;
+		int lo = from;
+		int hi = from;
+		while (hi < list.length && list[hi] < target) {
+			lo = hi + 1;
+			hi += step;
+			step <<= 1;
+		}
+		hi = Math.min(hi, list.length);
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (list[mid] < target) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
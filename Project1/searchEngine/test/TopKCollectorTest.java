@@ -0,0 +1,67 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/** Checks that TopKCollector gives exactly the first k of a stable full sort
+ * with DocumentComparator, then name for TopKCollector(k, true), on random
+ * documents with many tied scores.  Run with the classes of src on the class
+ * path; exits with 1 on the first difference.
+ */
+public class TopKCollectorTest {
+
+	public static void main(String[] args) {
+		Random random = new Random(42);
+		int[] sizes = {0, 1, 2, 50, 500};
+		int checked = 0;
+		for (int round = 0; round < 200; round++) {
+			for (int n : sizes) {
+				Document[] docs = randomDocs(random, n);
+				int[] ks = {0, 1, 30, 100, n + 1, n + 50};
+				for (int k : ks) {
+					check(docs, k, round, false);
+					check(docs, k, round, true);
+					checked += 2;
+				}
+			}
+		}
+		System.out.println("TopKCollectorTest: " + checked + " cases passed");
+	}
+
+	//scores from a few values so there are many ties, names in no order
+	private static Document[] randomDocs(Random random, int n) {
+		Document[] docs = new Document[n];
+		for (int i = 0; i < n; i++) {
+			docs[i] = new Document("doc-" + random.nextInt(1000), random.nextInt(8) / 4.0);
+		}
+		return docs;
+	}
+
+	private static void check(Document[] docs, int k, int round, final boolean byName) {
+		//Arrays.sort of objects is stable, ties keep the input order
+		Document[] sorted = Arrays.copyOf(docs, docs.length);
+		final DocumentComparator dc = new DocumentComparator();
+		Arrays.sort(sorted, new Comparator<Document>() {
+			@Override
+			public int compare(Document o1, Document o2) {
+				int c = dc.compare(o1, o2);
+				return (c != 0 || !byName) ? c : o1.getName().compareTo(o2.getName());
+			}
+		});
+		ArrayList<String> expected = new ArrayList<String>();
+		for (int i = 0; i < Math.min(k, sorted.length); i++) {
+			expected.add(sorted[i].getName());
+		}
+
+		TopKCollector top = new TopKCollector(k, byName);
+		top.collectAll(docs);
+		ArrayList<String> actual = top.getResults();
+
+		if (!expected.equals(actual)) {
+			System.out.println("FAILED round " + round + ", n = " + docs.length + ", k = " + k + ", byName = " + byName);
+			System.out.println("expected " + expected);
+			System.out.println("actual   " + actual);
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+import java.util.List;
+
+/** Sums of document vectors, dense arrays indexed by term id, for centroids
+ * and Rocchio feedback.  The sum of the whole collection is computed once,
+ * on first use, so the sum of every document outside a set costs one pass
+ * over the terms: the collection's sum minus the set's.
+ */
+public class Centroids {
+	private DocVectors docs;
+	private double[] collection;
+
+	public Centroids(DocVectors docs) {
+		this.docs = docs;
+	}
+
+	public int numDocs() {
+		return docs.size();
+	}
+
+	public int numTerms() {
+		return docs.getTerms().size();
+	}
+
+	//sum of the named documents, names that are not in the collection are skipped
+	public double[] sum(List<String> names) {
+		double[] sum = new double[numTerms()];
+		for (String name : names) {
+			SparseVector v = docs.get(name);
+			if (v != null) {
+				add(v, sum);
+			}
+		}
+		return sum;
+	}
+
+	//sum of the first count document ids
+	public double[] sum(int[] docIds, int count) {
+		double[] sum = new double[numTerms()];
+		for (int i = 0; i < count; i++) {
+			add(docs.get(docIds[i]), sum);
+		}
+		return sum;
+	}
+
+	//sum of every document, do not change it
+	public synchronized double[] collection() {
+		if (collection == null) {
+			double[] sum = new double[numTerms()];
+			for (int d = 0; d < numDocs(); d++) {
+				add(docs.get(d), sum);
+			}
+			collection = sum;
+		}
+		return collection;
+	}
+
+	//sum of every document not in the set the sum is of, each document must be in it once
+	public double[] complement(double[] sum) {
+		double[] all = collection();
+		double[] rest = new double[all.length];
+		for (int t = 0; t < all.length; t++) {
+			rest[t] = all[t] - sum[t];
+		}
+		return rest;
+	}
+
+	//the sum divided by count, in place
+	public static double[] mean(double[] sum, int count) {
+		if (count > 0) {
+			for (int t = 0; t < sum.length; t++) {
+				sum[t] /= count;
+			}
+		}
+		return sum;
+	}
+
+	//the vector divided by its length, in place
+	public static double[] normalize(double[] v) {
+		double length = 0.0;
+		for (int t = 0; t < v.length; t++) {
+			length += v[t] * v[t];
+		}
+		length = Math.sqrt(length);
+		if (length > 0) {
+			for (int t = 0; t < v.length; t++) {
+				v[t] /= length;
+			}
+		}
+		return v;
+	}
+
+	//the nonzero weights of a dense vector
+	public static SparseVector sparse(double[] dense) {
+		int count = 0;
+		for (int t = 0; t < dense.length; t++) {
+			if (dense[t] != 0.0) {
+				count++;
+			}
+		}
+		int[] ids = new int[count];
+		double[] weights = new double[count];
+		count = 0;
+		for (int t = 0; t < dense.length; t++) {
+			if (dense[t] != 0.0) {
+				ids[count] = t;
+				weights[count] = dense[t];
+				count++;
+			}
+		}
+		return new SparseVector(ids, weights);
+	}
+
+	private static void add(SparseVector v, double[] sum) {
+		for (int i = 0; i < v.size(); i++) {
+			sum[v.id(i)] += v.weight(i);
+		}
+	}
+}
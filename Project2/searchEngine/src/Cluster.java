@@ -1,81 +1,173 @@
-import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 
+/** A cluster of a complete link clustering.  The members are document
+ * positions linked through an array shared by every cluster, and the
+ * distances are this cluster's row of the shared matrix, so merging and
+ * scanning allocate nothing.  Only the clusters whose bit is set in the
+ * shared active bitmap still exist.
+ */
 public class Cluster {
-	private LinkedList<String> docs;
-	private ArrayList<Double> distances;
-	private int index;
-	
-	public Cluster(LinkedList<String> doc, double[] dist, int i) {
-		this.docs = doc;
-		this.distances = new ArrayList<Double>();
-		this.index = i;
-		
-		for (double d : dist) {
-			this.distances.add(new Double(d));
-		}
+	private int id;
+	private int n;
+	private double[] distances;
+	private long[] active;
+	private int[] nextMember;
+	private List<String> names;
+	//first and last member, -1 ends the member list
+	private int first;
+	private int last;
+	private int size;
+	//smallest distance in the row and its column, as of the last scan
+	double nearest;
+	int nearestIndex;
+	//the row has a NaN, its nearest column can change when any cluster goes
+	boolean irregular;
+
+	Cluster(int id, double[] distances, long[] active, int[] nextMember, List<String> names) {
+		this.id = id;
+		this.n = names.size();
+		this.distances = distances;
+		this.active = active;
+		this.nextMember = nextMember;
+		this.names = names;
+		this.first = id;
+		this.last = id;
+		this.size = 1;
+		nextMember[id] = -1;
+	}
+
+	//position of the first document, also the cluster's row in the matrix
+	public int getId() {
+		return id;
 	}
-	
-	public void setIndex(int i) {
-		index = i;
+
+	public int size() {
+		return size;
+	}
+
+	//document positions in the order they joined the cluster
+	public int[] getMembers() {
+		int[] members = new int[size];
+		int i = 0;
+		for (int m = first; m != -1; m = nextMember[m]) {
+			members[i++] = m;
+		}
+		return members;
 	}
-	
+
 	public LinkedList<String> getDocs() {
+		LinkedList<String> docs = new LinkedList<String>();
+		for (int m = first; m != -1; m = nextMember[m]) {
+			docs.add(names.get(m));
+		}
 		return docs;
 	}
-	
+
 	public double getDistance(int i) {
-		return distances.get(i).doubleValue();
+		return distances[id * n + i];
 	}
-	
-	public double getSmallestDistance() {
+
+	/**
+	 * Finds the smallest distance to another active cluster and the last
+	 * cluster at that distance, with the comparisons the ArrayList version
+	 * of this class used, and keeps them in nearest and nearestIndex.
+	 */
+	void scan() {
 		double smallest = Double.MAX_VALUE;
-		
-		for (int j=0; j < distances.size(); j++) {
-			if (j != index) {
-				if (distances.get(j).doubleValue() <= smallest) {
-					smallest = distances.get(j).doubleValue();
+		double s = Double.MAX_VALUE;
+		int index = -1;
+		boolean nan = false;
+		int row = id * n;
+		for (int w = 0; w < active.length; w++) {
+			long bits = active[w];
+			while (bits != 0) {
+				int j = (w << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				if (j == id) {
+					continue;
+				}
+				double d = distances[row + j];
+				if (d <= smallest) {
+					smallest = d;
+				}
+				if (d <= s || index == -1) {
+					s = d;
+					index = j;
+				}
+				if (d != d) {
+					nan = true;
 				}
 			}
 		}
-		
-		return smallest;
+		nearest = smallest;
+		nearestIndex = index;
+		irregular = nan;
 	}
-	
+
+	public double getSmallestDistance() {
+		return nearest;
+	}
+
 	public int getIndexOfSmallestDistance() {
-		double smallest = Double.MAX_VALUE;
-		int i = -1;
-		
-		for (int j=0; j < distances.size(); j++) {
-			if (j != index) {
-				if (distances.get(j).doubleValue() <= smallest || i == -1) {
-					smallest = distances.get(j).doubleValue();
-					i = j;
+		return nearestIndex;
+	}
+
+	//takes c's members and the larger of the two distances to every active cluster
+	public void completeLinkMerge(Cluster c) {
+		int mine = id * n;
+		int theirs = c.id * n;
+		for (int w = 0; w < active.length; w++) {
+			long bits = active[w];
+			while (bits != 0) {
+				int j = (w << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				if (distances[theirs + j] > distances[mine + j]) {
+					distances[mine + j] = distances[theirs + j];
 				}
 			}
 		}
-		
-		return i;
+
+		join(c);
 	}
-	
-	public void completeLinkMerge(Cluster c) {
-		//update cluster
-		docs.addAll(c.docs);
-				
-		//update distances
-		for (int i=0; i<distances.size(); i++) {
-			double mine = distances.get(i).doubleValue();
-			double theirs = c.distances.get(i).doubleValue();
-			
-			if (theirs > mine) {
-				distances.remove(i);
-				distances.add(i, new Double(theirs));
+
+	/**
+	 * Takes c's members, and as distance to every active cluster the smaller
+	 * of the two for HierarchicalClusterer.SINGLE, or the mean over the
+	 * members of both for HierarchicalClusterer.AVERAGE.
+	 */
+	public void merge(Cluster c, int linkage) {
+		if (linkage == HierarchicalClusterer.COMPLETE) {
+			completeLinkMerge(c);
+			return;
+		}
+		int mine = id * n;
+		int theirs = c.id * n;
+		double share = c.size / (double) (size + c.size);
+		for (int w = 0; w < active.length; w++) {
+			long bits = active[w];
+			while (bits != 0) {
+				int j = (w << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				double d = distances[mine + j];
+				double other = distances[theirs + j];
+				if (linkage == HierarchicalClusterer.SINGLE) {
+					if (other < d) {
+						distances[mine + j] = other;
+					}
+				}
+				else {
+					//no overflow when one of them is Double.MAX_VALUE
+					distances[mine + j] = d + (other - d) * share;
+				}
 			}
 		}
-	}
-	
-	public void removeDistance(int i) {
-		distances.remove(i);
+		join(c);
 	}
 
+	private void join(Cluster c) {
+		nextMember[last] = c.first;
+		last = c.last;
+		size += c.size;
+	}
 }
@@ -0,0 +1,104 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/** Re-ranks the results of a query by clusters.  The top n results are
+ * clustered into k clusters with the chosen linkage, every member of a
+ * cluster is ranked by its cluster's score, the largest or the mean score
+ * of the members, and ties are broken by the document's own score.
+ * Documents outside the top n keep their own score.
+ */
+public class ClusterReranker {
+	public static final int MAX = 0;
+	public static final int MEAN = 1;
+
+	private int linkage;
+	private int aggregation;
+	private int n;
+	private int k;
+
+	//linkage is one of the HierarchicalClusterer linkages
+	public ClusterReranker(int linkage, int aggregation, int n, int k) {
+		this.linkage = linkage;
+		this.aggregation = aggregation;
+		this.n = n;
+		this.k = k;
+	}
+
+	public int getLinkage() {
+		return linkage;
+	}
+
+	public int getAggregation() {
+		return aggregation;
+	}
+
+	//number of top results that are clustered
+	public int getN() {
+		return n;
+	}
+
+	//number of clusters
+	public int getK() {
+		return k;
+	}
+
+	//clusters of the top n results
+	public LinkedList<Cluster> cluster(OurSearchEngine ose, List<String> results) {
+		return ose.cluster(results.subList(0, Math.min(n, results.size())), k, linkage);
+	}
+
+	//score of a cluster from the scores of its members
+	public double score(Cluster c, Map<String,Double> ranks) {
+		LinkedList<String> docs = c.getDocs();
+		double count = 0.0;
+		for (String d : docs) {
+			double r = ranks.get(d).doubleValue();
+			//largest
+			if (aggregation == MAX && r > count) {
+				count = r;
+			}
+
+			//average
+			if (aggregation == MEAN) {
+				count += r;
+			}
+		}
+
+		//if average
+		if (aggregation == MEAN) {
+			count = count / docs.size();
+		}
+		return count;
+	}
+
+	//the best numResults of the scored documents, cluster members by their cluster's score
+	public ArrayList<String> rerank(HashMap<String,Double> ranks, List<Cluster> clusters, int numResults) {
+		HashMap<String, Double> clusterRanks = new HashMap<String, Double>();
+		for (Cluster c : clusters) {
+			Double score = Double.valueOf(score(c, ranks));
+			for (String d : c.getDocs()) {
+				clusterRanks.put(d, score);
+			}
+		}
+
+		Document[] docs = new Document[ranks.size()];
+		int j = 0;
+		for (String doc : ranks.keySet()) {
+			Document d = new Document(doc, ranks.get(doc).doubleValue());
+			if (clusterRanks.containsKey(doc)) {
+				d.setClusterRank(clusterRanks.get(doc).doubleValue());
+			}
+			docs[j] = d;
+			j++;
+		}
+		return OurSearchEngine.priority(docs, numResults);
+	}
+
+	//ranks and results must come from the same scoring of the query
+	public ArrayList<String> rerank(OurSearchEngine ose, HashMap<String,Double> ranks, List<String> results, int numResults) {
+		return rerank(ranks, cluster(ose, results), numResults);
+	}
+}
@@ -0,0 +1,100 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/** Corpus clusters of one SMART scheme, saved next to a MappedIndex so the
+ * collection is clustered only once.
+ *
+ * clusters-<scheme>-<k>: magic, version, index fingerprint, seed, number of
+ *                        documents, number of clusters,
+ *                        number of documents * cluster of the document,
+ *                        per cluster: number of terms, term ids, weights
+ *
+ * Document and term ids are the ids of the mapped index.  A file written for
+ * a different build of the index or another seed is ignored.
+ */
+public class ClusterStore {
+
+	private static final int MAGIC = 0x4F534331;
+	private static final int VERSION = 1;
+	private static final int HEADER = 32;
+
+	public static String file(String dir, String scheme, int k) {
+		return dir + "/clusters-" + scheme + "-" + k;
+	}
+
+	/**
+	 * The saved clusters, or null if there are none or they were written for
+	 * another index or seed.
+	 */
+	public static CorpusClusters load(String dir, String scheme, int k, long seed, MappedIndex index) throws IOException {
+		File f = new File(file(dir, scheme, k));
+		if (!f.isFile()) {
+			return null;
+		}
+
+		//under 2 GB, so the positions fit in an int
+		MappedByteBuffer buffer = MappedIndex.map(f.getPath());
+		if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+				|| buffer.getLong(8) != index.fingerprint() || buffer.getLong(16) != seed
+				|| buffer.getInt(24) != index.size()) {
+			return null;
+		}
+
+		int numDocs = buffer.getInt(24);
+		int numClusters = buffer.getInt(28);
+		int[] assignment = new int[numDocs];
+		ByteBuffer b = buffer.duplicate();
+		b.position(HEADER);
+		b.asIntBuffer().get(assignment);
+
+		int position = HEADER + numDocs * 4;
+		SparseVector[] centroids = new SparseVector[numClusters];
+		for (int c = 0; c < numClusters; c++) {
+			int count = buffer.getInt(position);
+			int[] ids = new int[count];
+			double[] weights = new double[count];
+			b.position(position + 4);
+			b.asIntBuffer().get(ids);
+			b.position(position + 4 + count * 4);
+			b.asDoubleBuffer().get(weights);
+			centroids[c] = new SparseVector(ids, weights);
+			position += 4 + count * 12;
+		}
+		return new CorpusClusters(assignment, centroids);
+	}
+
+	public static void write(String dir, String scheme, int k, long seed, MappedIndex index, CorpusClusters clusters) throws IOException {
+		int numDocs = index.size();
+		long size = HEADER + numDocs * 4L;
+		for (int c = 0; c < clusters.size(); c++) {
+			size += 4 + clusters.centroid(c).size() * 12L;
+		}
+		MappedIndex.checkSize(size, file(dir, scheme, k));
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file(dir, scheme, k))))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(index.fingerprint());
+			out.writeLong(seed);
+			out.writeInt(numDocs);
+			out.writeInt(clusters.size());
+			for (int d = 0; d < numDocs; d++) {
+				out.writeInt(clusters.cluster(d));
+			}
+			for (int c = 0; c < clusters.size(); c++) {
+				SparseVector v = clusters.centroid(c);
+				out.writeInt(v.size());
+				for (int i = 0; i < v.size(); i++) {
+					out.writeInt(v.id(i));
+				}
+				for (int i = 0; i < v.size(); i++) {
+					out.writeDouble(v.weight(i));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,205 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/** The whole collection split into clusters once, for cluster based
+ * retrieval: a query is compared with the centroids first and only the
+ * documents of the best clusters are scored.
+ *
+ * The clusters are found by buckshot: complete link clustering of a random
+ * sample of sqrt(k * N) documents gives the first centroids, then k-means
+ * moves every document to the centroid it has the largest dot product with
+ * and recomputes the centroids until nothing moves.  Centroids are the mean
+ * of their members, normalized to length 1.
+ */
+public class CorpusClusters {
+
+	private int[] assignment;
+	private int[][] members;
+	private SparseVector[] centroids;
+
+	public CorpusClusters(int[] assignment, SparseVector[] centroids) {
+		this.assignment = assignment;
+		this.centroids = centroids;
+
+		int[] counts = new int[centroids.length];
+		for (int d = 0; d < assignment.length; d++) {
+			counts[assignment[d]]++;
+		}
+		members = new int[centroids.length][];
+		for (int c = 0; c < centroids.length; c++) {
+			members[c] = new int[counts[c]];
+			counts[c] = 0;
+		}
+		for (int d = 0; d < assignment.length; d++) {
+			int c = assignment[d];
+			members[c][counts[c]++] = d;
+		}
+	}
+
+	//number of clusters
+	public int size() {
+		return centroids.length;
+	}
+
+	//cluster of a document id
+	public int cluster(int doc) {
+		return assignment[doc];
+	}
+
+	//document ids of a cluster, in increasing order
+	public int[] members(int cluster) {
+		return members[cluster];
+	}
+
+	public SparseVector centroid(int cluster) {
+		return centroids[cluster];
+	}
+
+	/**
+	 * Clusters the documents into at most k clusters, at most iterations
+	 * rounds of k-means.  The same seed gives the same clusters.
+	 */
+	public static CorpusClusters build(DocVectors docs, int k, int iterations, long seed) {
+		int n = docs.size();
+		k = Math.max(1, Math.min(k, n));
+		Centroids sums = new Centroids(docs);
+
+		//random sample, the first s of a partial shuffle
+		int s = Math.max(k, Math.min(n, (int) Math.sqrt((double) k * n)));
+		int[] ids = new int[n];
+		for (int d = 0; d < n; d++) {
+			ids[d] = d;
+		}
+		Random random = new Random(seed);
+		for (int i = 0; i < s; i++) {
+			int j = i + random.nextInt(n - i);
+			int t = ids[i];
+			ids[i] = ids[j];
+			ids[j] = t;
+		}
+
+		SparseVector[] sample = new SparseVector[s];
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < s; i++) {
+			sample[i] = docs.get(ids[i]);
+			names.add(Integer.toString(ids[i]));
+		}
+		HierarchicalClusterer link = new HierarchicalClusterer(DistanceMatrix.compute(sample, null), names);
+		link.cluster(k);
+
+		//first centroids, the means of the sample clusters
+		List<Cluster> seeds = link.getClusters();
+		double[][] dense = new double[seeds.size()][];
+		int c = 0;
+		for (Cluster sampled : seeds) {
+			int[] sampleMembers = sampled.getMembers();
+			int[] docIds = new int[sampleMembers.length];
+			for (int i = 0; i < sampleMembers.length; i++) {
+				docIds[i] = ids[sampleMembers[i]];
+			}
+			dense[c++] = Centroids.normalize(sums.sum(docIds, docIds.length));
+		}
+
+		//k-means
+		int[] assignment = new int[n];
+		Arrays.fill(assignment, -1);
+		int[] buffer = new int[n];
+		for (int round = 0; round < iterations; round++) {
+			boolean moved = false;
+			for (int d = 0; d < n; d++) {
+				int best = nearest(docs.get(d), dense);
+				if (best != assignment[d]) {
+					assignment[d] = best;
+					moved = true;
+				}
+			}
+			if (!moved) {
+				break;
+			}
+			for (c = 0; c < dense.length; c++) {
+				int count = 0;
+				for (int d = 0; d < n; d++) {
+					if (assignment[d] == c) {
+						buffer[count++] = d;
+					}
+				}
+				//an empty cluster keeps its centroid
+				if (count > 0) {
+					dense[c] = Centroids.normalize(sums.sum(buffer, count));
+				}
+			}
+		}
+
+		//drop the clusters nothing was assigned to
+		int[] renumber = new int[dense.length];
+		Arrays.fill(renumber, -1);
+		int used = 0;
+		for (int d = 0; d < n; d++) {
+			if (renumber[assignment[d]] == -1) {
+				renumber[assignment[d]] = 0;
+			}
+		}
+		for (c = 0; c < dense.length; c++) {
+			if (renumber[c] != -1) {
+				renumber[c] = used++;
+			}
+		}
+		SparseVector[] centroids = new SparseVector[used];
+		for (c = 0; c < dense.length; c++) {
+			if (renumber[c] != -1) {
+				centroids[renumber[c]] = Centroids.sparse(dense[c]);
+			}
+		}
+		for (int d = 0; d < n; d++) {
+			assignment[d] = renumber[assignment[d]];
+		}
+		return new CorpusClusters(assignment, centroids);
+	}
+
+	//centroid with the largest dot product, the first one on a tie
+	private static int nearest(SparseVector v, double[][] centroids) {
+		int best = 0;
+		double bestScore = Double.NEGATIVE_INFINITY;
+		for (int c = 0; c < centroids.length; c++) {
+			double[] centroid = centroids[c];
+			double score = 0.0;
+			for (int i = 0; i < v.size(); i++) {
+				score += v.weight(i) * centroid[v.id(i)];
+			}
+			if (score > bestScore) {
+				best = c;
+				bestScore = score;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * The probe clusters whose centroids have the largest dot product with
+	 * the query, best first.
+	 */
+	public int[] bestClusters(SparseVector query, int probe) {
+		probe = Math.min(probe, centroids.length);
+		double[] scores = new double[centroids.length];
+		for (int c = 0; c < centroids.length; c++) {
+			scores[c] = query.dot(centroids[c]);
+		}
+
+		//selection of the best probe, a few passes over a short list
+		int[] best = new int[probe];
+		boolean[] taken = new boolean[centroids.length];
+		for (int i = 0; i < probe; i++) {
+			int b = -1;
+			for (int c = 0; c < centroids.length; c++) {
+				if (!taken[c] && (b == -1 || scores[c] > scores[b])) {
+					b = c;
+				}
+			}
+			taken[b] = true;
+			best[i] = b;
+		}
+		return best;
+	}
+}
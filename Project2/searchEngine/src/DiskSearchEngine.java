@@ -7,39 +7,43 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 
-import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.Analyzer.TokenStreamComponents;
-import org.apache.lucene.analysis.en.PorterStemFilter;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.util.CharArraySet;
 
 public class DiskSearchEngine {
 	
-	private RandomAccessFile direct;
-	private RandomAccessFile variable;
+	//direct holds a fixed (offset, length) record per document id,
+	//variable holds length (term id, count) int pairs per document
+	private static final int DIRECT_RECORD = 12;
+	private static final int PAIR = 8;
+	
+	private FileChannel direct;
+	private FileChannel variable;
 	private HashMap<String, Integer> vocabulary;
 	private MyAnalyzer analyzer;
+	private CharArraySet stopwords;
+	private int indexThreads = Runtime.getRuntime().availableProcessors();
 	private String docPath;
-	private String directFile = "/direct.txt";
-	private String variableFile = "/variable.txt";
+	private String directFile = "/direct.bin";
+	private String variableFile = "/variable.bin";
 	private int currentWord = 0;
-	private int currentDoc = 0;
-	private int offset = 0;
+	private long offset = 0;
 	
 	public DiskSearchEngine(){
 		//need stopwords
-		CharArraySet stopwords = new CharArraySet(0, false);
+		stopwords = new CharArraySet(0, false);
 		String stopwordfile = "data/stopwords/stopwords_indri.txt";
 		try {
 			BufferedReader swr = new BufferedReader(new FileReader(stopwordfile));
@@ -56,66 +60,79 @@ public class DiskSearchEngine {
 		vocabulary = new HashMap<String, Integer>();
 	}
 	
+	//threads used to tokenize documents in buildIndex
+	public void setIndexThreads(int threads) {
+		indexThreads = threads;
+	}
+	
 	private HashMap<Integer, Integer> getTermsDocID(int docnumber) throws IOException {
-		//direct = id * 2 sizeof(Integer)
-				int offset = docnumber * 2 * 4;
-				direct.seek(offset);
-				byte[] bytes = new byte[2];
-				direct.read(bytes);
-
-				//byte offset, length
-				String data = new String(bytes);
-				String elements[] = data.split(",");
-				offset = Integer.parseInt(elements[0]);
-				int length = Integer.parseInt(elements[1]);
-				bytes = new byte[length * 2 * 4];
-				variable.seek(offset);
-				variable.read(bytes);
-				data = new String(bytes);
-				String[] terms = data.split(" ");
-				
-				HashMap<Integer, Integer> vector = new HashMap<Integer, Integer>();
-				
-				for (String term : terms) {
-					elements = term.split(",");
-					int termid = Integer.parseInt(elements[0]);
-					int count = Integer.parseInt(elements[1]);
-					
-					vector.put(termid, count);
-				}
-				return vector;
+		//direct = id * (long offset, int length)
+		ByteBuffer record = ByteBuffer.allocate(DIRECT_RECORD);
+		if (docnumber < 0 || readFully(direct, record, (long) docnumber * DIRECT_RECORD) < DIRECT_RECORD) {
+			throw new IOException("No document with id " + docnumber);
+		}
+		long start = record.getLong(0);
+		int length = record.getInt(8);
+		
+		//variable = length * (int term id, int count)
+		ByteBuffer pairs = ByteBuffer.allocate(length * PAIR);
+		if (readFully(variable, pairs, start) < pairs.capacity()) {
+			throw new IOException("Truncated record for document " + docnumber);
+		}
+		
+		HashMap<Integer, Integer> vector = new HashMap<Integer, Integer>();
+		for (int i = 0; i < length; i++) {
+			int termid = pairs.getInt(i * PAIR);
+			int count = pairs.getInt(i * PAIR + 4);
+			
+			vector.put(termid, count);
+		}
+		return vector;
 	}
 	
-	public HashMap<Integer,Integer> getTerms(String doc) throws IOException {
+	//positional read, does not move the channel
+	private static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		buffer.clear();
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, position + buffer.position());
+			if (n < 0) {
+				break;
+			}
+		}
+		return buffer.position();
+	}
+	
+	private static int docNumber(String doc) {
 		//convert doc name to doc id
 		//Grabs 0001 from CACM-0001
 		String num = doc.substring(doc.length()-4); 
 		// Turns 0001 into an int, need to do minus 1 to start at 0
-		int docnumber = Integer.parseInt(num)-1;
-		return getTermsDocID(docnumber);
+		return Integer.parseInt(num)-1;
+	}
+	
+	public HashMap<Integer,Integer> getTerms(String doc) throws IOException {
+		return getTermsDocID(docNumber(doc));
 	}
 	
 	public ArrayList<HashMap<Integer,Integer>> iterate() {
-		int i = 0;
 		ArrayList<HashMap<Integer,Integer>> col = new ArrayList<HashMap<Integer,Integer>>();
-		while(true) {
-			try {
-				HashMap<Integer, Integer> terms = getTermsDocID(i);
-				col.add(terms);
-				i++;
-			}
-			catch (IOException e) {
-				break;
+		try {
+			long docs = direct.size() / DIRECT_RECORD;
+			for (int i = 0; i < docs; i++) {
+				col.add(getTermsDocID(i));
 			}
 		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
 		return col;
 	}
 	
 	public void loadIndex(String indexDir, String docDir) {
 		try {
 			//load old index
-			direct = new RandomAccessFile(indexDir + directFile, "r");
-			variable = new RandomAccessFile(indexDir + variableFile, "r");
+			direct = new RandomAccessFile(indexDir + directFile, "r").getChannel();
+			variable = new RandomAccessFile(indexDir + variableFile, "r").getChannel();
 			
 			//load vocabulary
 			File f = new File(indexDir + "/vocab");
@@ -171,10 +188,12 @@ public class DiskSearchEngine {
 		}
 		
 		try {
-			direct = new RandomAccessFile(indexPath + directFile, "rw");
-			variable = new RandomAccessFile(indexPath + variableFile, "rw");
-		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
+			direct = new RandomAccessFile(indexPath + directFile, "rw").getChannel();
+			variable = new RandomAccessFile(indexPath + variableFile, "rw").getChannel();
+			direct.truncate(0);
+			variable.truncate(0);
+			offset = 0;
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
 
@@ -206,117 +225,67 @@ public class DiskSearchEngine {
 	}
 	
 	public HashMap<String,Integer> tokenize(Reader reader) {
-		// make a new, empty document
-		HashMap<String,Integer> terms = new HashMap<String,Integer>();
-		
 		//tokenize, remove stop words, and stem
-		TokenStreamComponents tsc = analyzer.createComponents("contents",reader);
-		TokenStream ts = tsc.getTokenStream();
-		PorterStemFilter psf = new PorterStemFilter(ts);
-		CharTermAttribute cattr = psf.addAttribute(CharTermAttribute.class);
-		try {
-			psf.reset();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			while (psf.incrementToken()) {
-			  String t = cattr.toString();
-			  Integer v = terms.get(t);
-			  if (v!=null) {
-				  terms.put(t, new Integer(v.intValue() + 1));
-			  }
-			  else {
-				  terms.put(t, new Integer(1));
-			  }
+		return analyzer.countTerms(reader);
+	}
+	
+	
+	void indexDocs(File file)  {
+		ArrayList<File> files = new ArrayList<File>();
+		ParallelIndexer.listFiles(file, files);
+		
+		//tokenize a batch on several threads, then write it in file order
+		//so term ids are handed out exactly as a single thread would
+		ParallelIndexer indexer = new ParallelIndexer(stopwords, indexThreads);
+		int batch = Math.max(1, indexThreads) * 256;
+		for (int from = 0; from < files.size(); from += batch) {
+			List<File> block = files.subList(from, Math.min(files.size(), from + batch));
+			ArrayList<HashMap<String,Integer>> terms = indexer.tokenize(block);
+			for (int i = 0; i < block.size(); i++) {
+				writeDocument(ParallelIndexer.docName(block.get(i)), terms.get(i));
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
-		try {
-			psf.end();
-		} catch (IOException e) {
-			e.printStackTrace();
+	}
+	
+	private void writeDocument(String doc, HashMap<String,Integer> terms) {
+		//pack (term id, count) pairs
+		ByteBuffer bVector = ByteBuffer.allocate(terms.size() * PAIR);
+		for (String term : terms.keySet()) {
+			//term already exists in our vocabulary
+			int id = 0;
+			if (vocabulary.containsKey(term)) {
+				id = vocabulary.get(term).intValue();
+			}
+			else {
+				currentWord++;
+				id = currentWord;
+				vocabulary.put(term, id);
+			}
+			
+			bVector.putInt(id);
+			bVector.putInt(terms.get(term).intValue());
 		}
+		bVector.flip();
+		
+		ByteBuffer bDirect = ByteBuffer.allocate(DIRECT_RECORD);
+		bDirect.putLong(offset);
+		bDirect.putInt(terms.size());
+		bDirect.flip();
+		
 		try {
-			psf.close();
+			//write to direct, records are addressed by document id
+			long position = (long) docNumber(doc) * DIRECT_RECORD;
+			while (bDirect.hasRemaining()) {
+				direct.write(bDirect, position + bDirect.position());
+			}
+			
+			//write to variable
+			while (bVector.hasRemaining()) {
+				variable.write(bVector, offset + bVector.position());
+			}
+			offset += terms.size() * PAIR;
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		
-		return terms;
-	}
-	
-	
-	void indexDocs(File file)  {
-		if (file.canRead()) {
-			if (file.isDirectory()) {
-				String[] files = file.list();
-				if (files != null) {
-					for (int i = 0; i < files.length; i++) {
-						indexDocs(new File(file, files[i]));
-					}
-				}
-			} else {
-				// make a new, empty document
-				String doc = file.getName();
-				FileInputStream fis = null;
-				
-				if (doc.endsWith(".txt")){
-					doc = doc.substring(0, doc.length()-".txt".length());
-					
-					try {
-						fis = new FileInputStream(file);
-					} catch (FileNotFoundException e) {
-						System.out.println(" caught a " + e.getClass() + "\n with message: " + e.getMessage());
-					}
-					
-					BufferedReader reader = new BufferedReader(new InputStreamReader(fis));
-
-					HashMap<String,Integer> terms = tokenize(reader);
-					
-					//convert to a string
-					String serialized = "";
-					for (String term : terms.keySet()) {
-						//term already exists in our vocabulary
-						int id = 0;
-						if (vocabulary.containsKey(term)) {
-							id = vocabulary.get(term).intValue();
-						}
-						else {
-							currentWord++;
-							id = currentWord;
-						}
-						
-						int count = terms.get(term).intValue();
-						
-						serialized += " " + id + "," + count;
-					}
-					
-					//convert string to bytes
-					byte[] bVector = serialized.getBytes();
-					
-					serialized = "";
-					
-					serialized = offset + "," + terms.size();
-					byte[] bDirect = serialized.getBytes();
-					
-					try {
-						//write to direct
-						direct.seek(currentDoc * 2 * 4);
-						direct.write(bDirect);
-						currentDoc++;
-						
-						//write to variable
-						variable.seek(offset);
-						variable.write(bVector);
-						offset += terms.size() * 2 * 4;
-					} catch (IOException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				}
-			}
-		}
 	}
 }
@@ -0,0 +1,90 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** The pairwise distances of a list of documents, 1 / dot product or
+ * Double.MAX_VALUE for documents without a common term, as a row major
+ * n * n matrix with 1 on the diagonal.
+ *
+ * The rows are split into blocks with about the same number of pairs and
+ * the blocks are computed on a fork join pool.  Every pair is written by
+ * one block only, so the matrix is the same for any number of threads.
+ */
+public class DistanceMatrix {
+
+	//pairs a block computes itself instead of splitting again
+	private static final long BLOCK_PAIRS = 8192;
+
+	public static double distance(SparseVector a, SparseVector b) {
+		double d = a.dot(b);
+		if (d != 0.0) {
+			return 1 / d;
+		}
+		return Double.MAX_VALUE;
+	}
+
+	//pool may be null to compute on the calling thread
+	public static double[] compute(SparseVector[] vectors, ForkJoinPool pool) {
+		int n = vectors.length;
+		double[] distances = new double[n * n];
+		Rows all = new Rows(vectors, distances, 0, n);
+		if (pool == null || pairs(n, 0, n) <= BLOCK_PAIRS) {
+			all.compute();
+		}
+		else {
+			pool.invoke(all);
+		}
+		return distances;
+	}
+
+	//pairs i < j with i in [from, to)
+	private static long pairs(int n, int from, int to) {
+		long rows = to - from;
+		return rows * (n - 1) - (rows * (from + to - 1)) / 2;
+	}
+
+	private static class Rows extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private SparseVector[] vectors;
+		private double[] distances;
+		private int from;
+		private int to;
+
+		Rows(SparseVector[] vectors, double[] distances, int from, int to) {
+			this.vectors = vectors;
+			this.distances = distances;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			int n = vectors.length;
+			long work = pairs(n, from, to);
+			if (work <= BLOCK_PAIRS || to - from < 2) {
+				fill();
+				return;
+			}
+
+			//the first rows have the most pairs, split where half the pairs are done
+			int mid = from + 1;
+			while (mid < to - 1 && pairs(n, from, mid) < work / 2) {
+				mid++;
+			}
+			invokeAll(new Rows(vectors, distances, from, mid), new Rows(vectors, distances, mid, to));
+		}
+
+		private void fill() {
+			int n = vectors.length;
+			for (int i = from; i < to; i++) {
+				distances[i * n + i] = 1;
+				SparseVector v = vectors[i];
+				for (int j = i + 1; j < n; j++) {
+					double d = distance(v, vectors[j]);
+					distances[i * n + j] = d;
+					distances[j * n + i] = d;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,47 @@
+import java.io.Serializable;
+import java.util.HashMap;
+
+public class DocStats implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private int length;
+	private int maxTf;
+	private int unique;
+
+	public DocStats(HashMap<String,Integer> terms) {
+		this.length = 0;
+		this.maxTf = 0;
+		this.unique = 0;
+
+		if (terms != null) {
+			for (Integer v : terms.values()) {
+				int count = v.intValue();
+				length += count;
+				if (count > maxTf) {
+					maxTf = count;
+				}
+			}
+			unique = terms.size();
+		}
+	}
+
+	public DocStats(int length, int maxTf, int unique) {
+		this.length = length;
+		this.maxTf = maxTf;
+		this.unique = unique;
+	}
+
+	//total number of terms in the document
+	public int getLength() {
+		return this.length;
+	}
+
+	//frequency of the most common term
+	public int getMaxTf() {
+		return this.maxTf;
+	}
+
+	public int getUnique() {
+		return this.unique;
+	}
+}
@@ -0,0 +1,72 @@
+import java.util.Map;
+
+/** The weighted vector of every document.  Terms and document names are
+ * interned into dense ids once and the vectors are SparseVectors, so there
+ * is no nested map, boxed weight or repeated term string per posting.
+ */
+public class DocVectors {
+
+	private TermDictionary terms;
+	private TermDictionary docs;
+	private SparseVector[] vectors;
+
+	public DocVectors(TermDictionary terms, TermDictionary docs, SparseVector[] vectors) {
+		this.terms = terms;
+		this.docs = docs;
+		this.vectors = vectors;
+	}
+
+	public TermDictionary getTerms() {
+		return terms;
+	}
+
+	public TermDictionary getDocs() {
+		return docs;
+	}
+
+	//number of documents
+	public int size() {
+		return docs.size();
+	}
+
+	public SparseVector get(int doc) {
+		return vectors[doc];
+	}
+
+	//vector of the document, null if there is no such document
+	public SparseVector get(String doc) {
+		int id = docs.id(doc);
+		return (id < 0) ? null : vectors[id];
+	}
+
+	//weight of the term in the document, 0 if it does not appear
+	public double weight(String doc, String term) {
+		SparseVector v = get(doc);
+		int t = terms.id(term);
+		if (v == null || t < 0) {
+			return 0.0;
+		}
+		return v.get(t);
+	}
+
+	//vector of term weights in this dictionary's ids, unknown terms are left out
+	public SparseVector vector(Map<String,Double> weights) {
+		int[] ids = new int[weights.size()];
+		double[] w = new double[weights.size()];
+		int count = 0;
+		for (Map.Entry<String,Double> e : weights.entrySet()) {
+			int t = terms.id(e.getKey());
+			if (t >= 0 && e.getValue() != null) {
+				ids[count] = t;
+				w[count] = e.getValue().doubleValue();
+				count++;
+			}
+		}
+		return SparseVector.sorted(ids, w, count);
+	}
+
+	//same dictionaries, new vectors
+	public DocVectors with(SparseVector[] replaced) {
+		return new DocVectors(terms, docs, replaced);
+	}
+}
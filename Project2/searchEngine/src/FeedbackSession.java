@@ -0,0 +1,130 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/** Relevance feedback for one user's query over several rounds.  The query
+ * is analyzed and scored once; after that every round takes the documents
+ * judged since the last round, updates the query vector in place with
+ * RocchioFeedback and adds only the terms it changed to the kept scores.
+ *
+ * A session belongs to one user and is not safe to share between threads.
+ * It keeps the index it was started on, even if the engine loads another.
+ */
+public class FeedbackSession {
+	private RocchioFeedback feedback;
+	private HashMap<String,Double> original;
+	private HashMap<String,Double> query;
+	private ScoreAccumulator scores;
+	private double A;
+	private double B;
+	private double C;
+	private int K;
+	//every judgment so far, and the ones the next round has not used yet
+	private LinkedHashSet<String> relevant = new LinkedHashSet<String>();
+	private LinkedHashSet<String> nonRelevant = new LinkedHashSet<String>();
+	private ArrayList<String> newRelevant = new ArrayList<String>();
+	private ArrayList<String> newNonRelevant = new ArrayList<String>();
+	private int rounds;
+
+	/**
+	 * query is the weighted and normalized query vector, A, B and C the
+	 * Rocchio weights and K the number of new terms a round may add.
+	 */
+	public FeedbackSession(InvertedIndex inverted, Centroids centroids, HashMap<String,Double> query, double A, double B, double C, int K) {
+		this.feedback = new RocchioFeedback(inverted, centroids);
+		this.original = query;
+		this.query = query;
+		this.scores = inverted.accumulate(query);
+		this.A = A;
+		this.B = B;
+		this.C = C;
+		this.K = K;
+		this.rounds = 0;
+	}
+
+	//the query as it was analyzed, do not change it
+	public HashMap<String,Double> getOriginalQuery() {
+		return original;
+	}
+
+	//the query after the last round, do not change it
+	public HashMap<String,Double> getQuery() {
+		return query;
+	}
+
+	public int getRounds() {
+		return rounds;
+	}
+
+	//score of every document that contains a query term
+	public HashMap<String,Double> getRanks() {
+		return scores.getRanks();
+	}
+
+	//best k documents under the current query
+	public ArrayList<String> getResults(int k) {
+		return OurSearchEngine.getResults(scores.getRanks(), k);
+	}
+
+	//best k documents that have not been judged yet
+	public ArrayList<String> getUnjudgedResults(int k) {
+		ArrayList<String> all = getResults(k + relevant.size() + nonRelevant.size());
+		ArrayList<String> unjudged = new ArrayList<String>();
+		for (String doc : all) {
+			if (!isJudged(doc)) {
+				unjudged.add(doc);
+				if (unjudged.size() == k) {
+					break;
+				}
+			}
+		}
+		return unjudged;
+	}
+
+	public boolean isJudged(String doc) {
+		return relevant.contains(doc) || nonRelevant.contains(doc);
+	}
+
+	//a document can be judged once, later judgments of it are ignored
+	public void markRelevant(String doc) {
+		if (!isJudged(doc)) {
+			relevant.add(doc);
+			newRelevant.add(doc);
+		}
+	}
+
+	public void markNonRelevant(String doc) {
+		if (!isJudged(doc)) {
+			nonRelevant.add(doc);
+			newNonRelevant.add(doc);
+		}
+	}
+
+	public List<String> getRelevant() {
+		return new ArrayList<String>(relevant);
+	}
+
+	public List<String> getNonRelevant() {
+		return new ArrayList<String>(nonRelevant);
+	}
+
+	/**
+	 * One round with the documents judged since the last one:
+	 * q = A * q + B * mean of the new relevant - C * mean of the new
+	 * non-relevant, with up to K new terms.  Returns false, and changes
+	 * nothing, if nothing was judged since the last round.
+	 */
+	public boolean feedback() {
+		if (newRelevant.isEmpty() && newNonRelevant.isEmpty()) {
+			return false;
+		}
+		HashMap<String,Double> expanded = feedback.expand(query, newRelevant, newNonRelevant, A, B, C, K);
+		feedback.update(scores, query, expanded, A);
+		query = expanded;
+		newRelevant.clear();
+		newNonRelevant.clear();
+		rounds++;
+		return true;
+	}
+}
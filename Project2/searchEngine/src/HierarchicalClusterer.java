@@ -0,0 +1,226 @@
+import java.util.LinkedList;
+import java.util.List;
+
+/** Agglomerative clustering over a primitive distance matrix, complete,
+ * single or average link.  Complete link merges the same clusters in the
+ * same order as the original loop over Cluster rows, without scanning every
+ * row again on each merge.
+ *
+ * Every cluster keeps the smallest distance in its row and the column it is
+ * in, and the clusters sit in an indexed heap on that distance.  A merge only
+ * changes the row of the cluster that grows and the rows whose nearest
+ * cluster was merged away, so only those rows are scanned again.
+ *
+ * As in the original loop, a complete link merge keeps the larger distance
+ * of the two rows in the row of the cluster that grows and leaves the other
+ * rows alone, so a row and its column can differ and the matrix is kept
+ * whole, n * n.  Single and average link update the column as well.
+ */
+public class HierarchicalClusterer {
+	public static final int COMPLETE = 0;
+	public static final int SINGLE = 1;
+	public static final int AVERAGE = 2;
+
+	private int n;
+	private int linkage;
+	private double[] distances;
+	private Cluster[] clusters;
+	//bit c is set while cluster c exists
+	private long[] active;
+	private int numClusters;
+	//active clusters by nearest distance, then by position
+	private int[] heap;
+	private int[] heapPosition;
+	private int heapSize;
+
+	//distances is row major and changed by the merges, docs names its rows
+	public HierarchicalClusterer(double[] distances, List<String> docs) {
+		this(distances, docs, COMPLETE);
+	}
+
+	public HierarchicalClusterer(double[] distances, List<String> docs, int linkage) {
+		n = docs.size();
+		this.linkage = linkage;
+		this.distances = distances;
+		clusters = new Cluster[n];
+		active = new long[(n + 63) >>> 6];
+		int[] nextMember = new int[n];
+		heap = new int[n];
+		heapPosition = new int[n];
+
+		for (int i = 0; i < n; i++) {
+			active[i >>> 6] |= 1L << i;
+			clusters[i] = new Cluster(i, distances, active, nextMember, docs);
+		}
+		numClusters = n;
+		for (int i = 0; i < n; i++) {
+			clusters[i].scan();
+			heap[i] = i;
+			heapPosition[i] = i;
+		}
+		heapSize = n;
+		for (int i = n / 2 - 1; i >= 0; i--) {
+			down(i);
+		}
+	}
+
+	public int size() {
+		return numClusters;
+	}
+
+	private boolean isActive(int c) {
+		return (active[c >>> 6] & (1L << c)) != 0;
+	}
+
+	//merge until there are at most K clusters
+	public void cluster(int K) {
+		while (numClusters > K) {
+			Cluster c1 = clusters[heap[0]];
+			//only the complete link loop of the original code is kept as it was
+			boolean linked = c1.getSmallestDistance() < Double.MAX_VALUE
+					|| (linkage != COMPLETE && c1.getIndexOfSmallestDistance() != -1);
+			if (linked) {
+				Cluster c2 = clusters[c1.getIndexOfSmallestDistance()];
+				c1.merge(c2, linkage);
+				remove(c2.getId());
+				if (linkage != COMPLETE) {
+					updateColumn(c1.getId());
+				}
+				rescan(c2.getId(), c1.getId());
+			}
+			else {
+				//no two clusters share a term: the original complete link loop
+				//merged the first cluster into itself and then removed it
+				int c = 0;
+				while (!isActive(c)) {
+					c++;
+				}
+				remove(c);
+				rescan(c, -1);
+			}
+		}
+	}
+
+	//the remaining clusters in their original order
+	public LinkedList<Cluster> getClusters() {
+		LinkedList<Cluster> remaining = new LinkedList<Cluster>();
+		for (int c = 0; c < n; c++) {
+			if (isActive(c)) {
+				remaining.add(clusters[c]);
+			}
+		}
+		return remaining;
+	}
+
+	private void remove(int c) {
+		active[c >>> 6] &= ~(1L << c);
+		numClusters--;
+
+		int p = heapPosition[c];
+		heapSize--;
+		if (p != heapSize) {
+			heap[p] = heap[heapSize];
+			heapPosition[heap[p]] = p;
+			update(p);
+		}
+	}
+
+	//copies the merged row into its column and fixes the nearest cluster of the other rows
+	private void updateColumn(int c) {
+		for (int w = 0; w < active.length; w++) {
+			long bits = active[w];
+			while (bits != 0) {
+				int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				if (i == c) {
+					continue;
+				}
+				double d = clusters[c].getDistance(i);
+				distances[i * n + c] = d;
+
+				//the scan keeps the last column of the smallest distance
+				Cluster r = clusters[i];
+				if (!r.irregular && d < Double.MAX_VALUE
+						&& (d < r.nearest || (d == r.nearest && c >= r.nearestIndex))) {
+					r.nearest = d;
+					r.nearestIndex = c;
+					update(heapPosition[i]);
+				}
+				else if (r.nearestIndex == c || d != d || r.nearest >= Double.MAX_VALUE) {
+					r.scan();
+					update(heapPosition[i]);
+				}
+			}
+		}
+	}
+
+	//scan the rows that may have lost their nearest cluster with column c, and row changed
+	private void rescan(int c, int changed) {
+		for (int w = 0; w < active.length; w++) {
+			long bits = active[w];
+			while (bits != 0) {
+				int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				Cluster r = clusters[i];
+				if (i == changed || r.nearestIndex == c || r.irregular) {
+					r.scan();
+					update(heapPosition[i]);
+				}
+			}
+		}
+	}
+
+	private boolean less(int a, int b) {
+		double da = clusters[a].nearest;
+		double db = clusters[b].nearest;
+		if (da != db) {
+			return da < db;
+		}
+		return a < b;
+	}
+
+	private void update(int p) {
+		if (p > 0 && less(heap[p], heap[(p - 1) / 2])) {
+			up(p);
+		}
+		else {
+			down(p);
+		}
+	}
+
+	private void up(int p) {
+		int c = heap[p];
+		while (p > 0) {
+			int parent = (p - 1) / 2;
+			if (!less(c, heap[parent])) {
+				break;
+			}
+			heap[p] = heap[parent];
+			heapPosition[heap[p]] = p;
+			p = parent;
+		}
+		heap[p] = c;
+		heapPosition[c] = p;
+	}
+
+	private void down(int p) {
+		int c = heap[p];
+		while (true) {
+			int child = 2 * p + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && less(heap[child + 1], heap[child])) {
+				child++;
+			}
+			if (!less(heap[child], c)) {
+				break;
+			}
+			heap[p] = heap[child];
+			heapPosition[heap[p]] = p;
+			p = child;
+		}
+		heap[p] = c;
+		heapPosition[c] = p;
+	}
+}
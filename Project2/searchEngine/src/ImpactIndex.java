@@ -0,0 +1,247 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Postings ordered by impact, the document's weight for the term, largest
+ * first, built from the normalized document vectors.  A query is scored in
+ * rounds, each adding the postings of every list down to a fraction of the
+ * largest query weight * impact left, and stops once the postings left
+ * cannot change which documents are in the top K: with cosine ('c')
+ * normalized weights that is about half of the postings or less.  The
+ * documents that can still be in the top K are then scored exactly, in the
+ * query's order, so the scores are the ones InvertedIndex gives.  Documents
+ * with the same score come in name order, as in OurSearchEngine.getResults.
+ *
+ * Stopping early needs weights of 0 or more; a query with a negative
+ * weight, or a term with a negative impact, is scored by InvertedIndex.
+ */
+public class ImpactIndex {
+	//the postings left are only trusted to be below the k-th score by this much
+	private static final double SLACK = 1e-9;
+	//every round walks the postings down to this fraction of the largest one left
+	private static final double CUTOFF = 0.8;
+
+	private InvertedIndex inverted;
+	private DocVectors vectors;
+	//term id -> document ids and weights, largest weight first
+	private int[][] postingDocs;
+	private double[][] postingWeights;
+	private AtomicLong postingsScored = new AtomicLong();
+
+	//inverted holds the postings of the normalized document vectors
+	public ImpactIndex(InvertedIndex inverted) {
+		this.inverted = inverted;
+		vectors = inverted.getVectors();
+		int numTerms = inverted.size();
+		postingDocs = new int[numTerms][];
+		postingWeights = new double[numTerms][];
+		for (int t = 0; t < numTerms; t++) {
+			final int[] byDoc = inverted.postingDocs(t);
+			final double[] weights = inverted.postingWeights(t);
+			Integer[] order = new Integer[byDoc.length];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = Integer.valueOf(i);
+			}
+			//largest weight first, then document order
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer o1, Integer o2) {
+					int c = Double.compare(weights[o2.intValue()], weights[o1.intValue()]);
+					return (c != 0) ? c : Integer.compare(byDoc[o1.intValue()], byDoc[o2.intValue()]);
+				}
+			});
+			postingDocs[t] = new int[order.length];
+			postingWeights[t] = new double[order.length];
+			for (int i = 0; i < order.length; i++) {
+				postingDocs[t][i] = byDoc[order[i].intValue()];
+				postingWeights[t][i] = weights[order[i].intValue()];
+			}
+		}
+	}
+
+	public DocVectors getVectors() {
+		return vectors;
+	}
+
+	//number of documents that contain the term
+	public int docFreq(String term) {
+		int t = vectors.getTerms().id(term);
+		return (t < 0) ? 0 : postingDocs[t].length;
+	}
+
+	//postings scored by top since the index was built
+	public long getPostingsScored() {
+		return postingsScored.get();
+	}
+
+	/**
+	 * The best k documents for the query, term -> query weight, the same as
+	 * the top k of InvertedIndex.score.
+	 */
+	public ArrayList<String> top(HashMap<String,Double> query, int k) {
+		//the query's terms in its order
+		int numTerms = 0;
+		int[] ids = new int[query.size()];
+		double[] q = new double[query.size()];
+		for (String term : query.keySet()) {
+			Double qScore = query.get(term);
+			int t = vectors.getTerms().id(term);
+			if (qScore == null || t < 0) {
+				continue;
+			}
+			ids[numTerms] = t;
+			q[numTerms] = qScore.doubleValue();
+			double[] weights = postingWeights[t];
+			if (q[numTerms] < 0 || (weights.length > 0 && weights[weights.length - 1] < 0)) {
+				//the postings left can lower a score, nothing can be skipped
+				return OurSearchEngine.getResults(inverted.score(query), k);
+			}
+			numTerms++;
+		}
+		ids = Arrays.copyOf(ids, numTerms);
+		q = Arrays.copyOf(q, numTerms);
+
+		int numDocs = vectors.size();
+		double[] scores = new double[numDocs];
+		boolean[] seen = new boolean[numDocs];
+		int[] touched = new int[numDocs];
+		int numTouched = 0;
+
+		//next posting of every list
+		int[] pos = new int[numTerms];
+		long numPostings = 0;
+		long nextCheck = Math.max(k, 64);
+		double remaining = remaining(ids, q, pos);
+		while (true) {
+			double largest = largest(ids, q, pos);
+			if (largest < 0) {
+				break;
+			}
+
+			//every posting that adds at least the cutoff, a fraction of the largest left
+			double cutoff = largest * CUTOFF;
+			for (int c = 0; c < numTerms; c++) {
+				int[] docs = postingDocs[ids[c]];
+				double[] weights = postingWeights[ids[c]];
+				int i = pos[c];
+				while (i < docs.length && weights[i] * q[c] >= cutoff) {
+					int d = docs[i];
+					if (!seen[d]) {
+						seen[d] = true;
+						touched[numTouched++] = d;
+					}
+					scores[d] += weights[i] * q[c];
+					i++;
+				}
+				numPostings += i - pos[c];
+				pos[c] = i;
+			}
+
+			remaining = remaining(ids, q, pos);
+			if (numPostings >= nextCheck) {
+				nextCheck = numPostings + Math.max(64, numTouched);
+				//no new document can get past the k-th score any more, the ones that
+				//can are scored exactly below, cheaper than the rest of the postings
+				if (remaining * (1 + SLACK) < kth(scores, touched, numTouched, k)) {
+					break;
+				}
+			}
+		}
+		postingsScored.addAndGet(numPostings);
+
+		//exact scores of the documents that can be in the top k
+		double bound = kth(scores, touched, numTouched, k);
+		TopKCollector top = new TopKCollector(k, true);
+		TermDictionary names = vectors.getDocs();
+		for (int i = 0; i < numTouched; i++) {
+			int d = touched[i];
+			if ((scores[d] + remaining) * (1 + SLACK) < bound) {
+				continue;
+			}
+			SparseVector v = vectors.get(d);
+			double score = 0.0;
+			for (int c = 0; c < numTerms; c++) {
+				//a term the document does not have adds nothing
+				double w = v.get(ids[c]);
+				if (w != 0.0) {
+					score += w * q[c];
+				}
+			}
+			top.collect(new Document(names.get(d), score));
+		}
+		return top.getResults();
+	}
+
+	//the largest next posting of any list, -1 when every list is done
+	private double largest(int[] ids, double[] q, int[] pos) {
+		double largest = -1;
+		for (int c = 0; c < pos.length; c++) {
+			if (pos[c] < postingDocs[ids[c]].length) {
+				largest = Math.max(largest, head(c, ids, q, pos));
+			}
+		}
+		return largest;
+	}
+
+	//what the next posting of list c adds, 0 at the end of the list
+	private double head(int c, int[] ids, double[] q, int[] pos) {
+		double[] weights = postingWeights[ids[c]];
+		return (pos[c] < weights.length) ? weights[pos[c]] * q[c] : 0.0;
+	}
+
+	//the most a document can still get, the sum of the next posting of every list
+	private double remaining(int[] ids, double[] q, int[] pos) {
+		double remaining = 0.0;
+		for (int c = 0; c < pos.length; c++) {
+			remaining += head(c, ids, q, pos);
+		}
+		return remaining;
+	}
+
+	//k-th largest partial score, -infinity if fewer than k documents have one
+	private static double kth(double[] scores, int[] touched, int numTouched, int k) {
+		if (k <= 0 || numTouched < k) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		double[] partial = new double[numTouched];
+		for (int i = 0; i < numTouched; i++) {
+			partial[i] = scores[touched[i]];
+		}
+		//quickselect for position numTouched - k of the sorted order
+		int target = numTouched - k;
+		int lo = 0;
+		int hi = numTouched - 1;
+		while (lo < hi) {
+			double pivot = partial[(lo + hi) >>> 1];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (partial[i] < pivot) {
+					i++;
+				}
+				while (partial[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					double t = partial[i];
+					partial[i] = partial[j];
+					partial[j] = t;
+					i++;
+					j--;
+				}
+			}
+			if (target <= j) {
+				hi = j;
+			}
+			else if (target >= i) {
+				lo = i;
+			}
+			else {
+				break;
+			}
+		}
+		return partial[target];
+	}
+}
@@ -0,0 +1,60 @@
+import java.io.File;
+import java.io.IOException;
+
+/** Builds the CACM and MED indexes with each postings encoding and prints
+ * the index size and how fast the inverted postings decode.
+ */
+public class IndexReport {
+
+	private static long size(String dir, String file) {
+		return new File(dir + file).length();
+	}
+
+	public static void report(String name, String docsDir, String indexDir, int encoding) throws IOException {
+		String dir = indexDir + "-" + PostingsReader.name(encoding);
+		new File(dir).mkdirs();
+
+		OurSearchEngine ose = new OurSearchEngine();
+		ose.setPostingsEncoding(encoding);
+		ose.buildIndex(docsDir, dir);
+
+		MappedIndex index = MappedIndex.open(dir);
+		if (index.encoding() == PostingsReader.NONE) {
+			System.out.println(name + ": no inverted postings in " + dir);
+			return;
+		}
+		long total = size(dir, MappedIndex.TERMS) + size(dir, MappedIndex.DOCS)
+				+ size(dir, MappedIndex.POSTINGS) + size(dir, MappedIndex.INVERTED);
+
+		//decode every list a few times, the first rounds warm up the JIT
+		long postings = 0;
+		long checksum = 0;
+		long nanos = 0;
+		for (int round = 0; round < 30; round++) {
+			long start = System.nanoTime();
+			for (int t = 0; t < index.numTerms(); t++) {
+				PostingsReader reader = index.postings(t);
+				while (reader.nextDoc() != PostingsReader.NO_MORE_DOCS) {
+					checksum += reader.doc() + reader.freq();
+					if (round >= 10) {
+						postings++;
+					}
+				}
+			}
+			if (round >= 10) {
+				nanos += System.nanoTime() - start;
+			}
+		}
+
+		System.out.printf("%s %s: inverted %d bytes, index %d bytes, %.1f million postings/s (checksum %d)\n",
+				name, PostingsReader.name(encoding), size(dir, MappedIndex.INVERTED), total,
+				postings / (nanos / 1000.0), checksum);
+	}
+
+	public static void main(String[] args) throws IOException {
+		report("CACM", "data/cacm", "data/index/cacm3", PostingsReader.RAW);
+		report("CACM", "data/cacm", "data/index/cacm3", PostingsReader.VBYTE);
+		report("MED", "data/med", "data/index/med3", PostingsReader.RAW);
+		report("MED", "data/med", "data/index/med3", PostingsReader.VBYTE);
+	}
+}
@@ -0,0 +1,90 @@
+import java.util.HashMap;
+
+public class InvertedIndex {
+	private DocVectors vectors;
+	//term id -> document ids and weights, documents in increasing order
+	private int[][] postingDocs;
+	private double[][] postingWeights;
+
+	public InvertedIndex(DocVectors docs) {
+		vectors = docs;
+		int numTerms = docs.getTerms().size();
+
+		//count the documents of every term, then fill the lists
+		int[] counts = new int[numTerms];
+		for (int d = 0; d < docs.size(); d++) {
+			SparseVector v = docs.get(d);
+			for (int i = 0; i < v.size(); i++) {
+				counts[v.id(i)]++;
+			}
+		}
+
+		postingDocs = new int[numTerms][];
+		postingWeights = new double[numTerms][];
+		for (int t = 0; t < numTerms; t++) {
+			postingDocs[t] = new int[counts[t]];
+			postingWeights[t] = new double[counts[t]];
+			counts[t] = 0;
+		}
+
+		//invert document -> term into term -> document
+		for (int d = 0; d < docs.size(); d++) {
+			SparseVector v = docs.get(d);
+			for (int i = 0; i < v.size(); i++) {
+				int t = v.id(i);
+				postingDocs[t][counts[t]] = d;
+				postingWeights[t][counts[t]] = v.weight(i);
+				counts[t]++;
+			}
+		}
+	}
+
+	//number of documents that contain the term
+	public int docFreq(String term) {
+		int t = vectors.getTerms().id(term);
+		return (t < 0) ? 0 : postingDocs[t].length;
+	}
+
+	public int size() {
+		return postingDocs.length;
+	}
+
+	public int numDocs() {
+		return vectors.size();
+	}
+
+	public DocVectors getVectors() {
+		return vectors;
+	}
+
+	//document ids of the term, in increasing order, do not change them
+	int[] postingDocs(int term) {
+		return postingDocs[term];
+	}
+
+	double[] postingWeights(int term) {
+		return postingWeights[term];
+	}
+
+	//term at a time scoring, only documents that contain a query term get an accumulator
+	public HashMap<String,Double> score(HashMap<String,Double> query) {
+		if (query == null) {
+			return new HashMap<String,Double>();
+		}
+		return accumulate(query).getRanks();
+	}
+
+	//the accumulators of the query, to add feedback terms to later
+	public ScoreAccumulator accumulate(HashMap<String,Double> query) {
+		ScoreAccumulator scores = new ScoreAccumulator(this);
+		for (String term : query.keySet()) {
+			Double qScore = query.get(term);
+			int t = vectors.getTerms().id(term);
+			if (qScore == null || t < 0) {
+				continue;
+			}
+			scores.add(t, qScore.doubleValue());
+		}
+		return scores;
+	}
+}
@@ -0,0 +1,547 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/** Read only view of an index written in the binary layout below.  The files
+ * are opened with FileChannel.map, so opening the index only maps them and
+ * the pages a query touches are read in by the operating system.
+ *
+ * terms:    magic, version, count, count * (string offset, df), strings
+ * docs:     magic, version, count, count * (string offset, postings offset,
+ *           number of terms, length, max tf), strings
+ * postings: per document, number of terms * (term id, count) sorted by term id
+ * inverted: magic, version, encoding, count, per term the (document id, count)
+ *           list written by PostingsReader, count * list offset, table offset;
+ *           optional, only postings() reads it
+ *
+ * Strings are a short byte length followed by UTF-8 bytes, and both tables
+ * are sorted by String.compareTo so names and terms are found by binary search.
+ * Every file is mapped as one buffer, so it has to be under 2 GB; offsets
+ * are stored as longs but read as ints.
+ */
+public class MappedIndex extends AbstractMap<String, HashMap<String,Integer>> {
+
+	public static final String TERMS = "/terms";
+	public static final String DOCS = "/docs";
+	public static final String POSTINGS = "/postings";
+	public static final String INVERTED = "/inverted";
+
+	private static final int MAGIC = 0x4F534531;
+	private static final int VERSION = 1;
+	private static final int HEADER = 12;
+	private static final int TERM_ENTRY = 8;
+	private static final int DOC_ENTRY = 24;
+
+	private MappedByteBuffer terms;
+	private MappedByteBuffer docs;
+	private MappedByteBuffer postings;
+	private MappedByteBuffer inverted;
+	private int encoding;
+	private int invertedTable;
+	private int numTerms;
+	private int numDocs;
+	private int termStrings;
+	private int docStrings;
+	private String[] termCache;
+	private String[] docCache;
+
+	private MappedIndex(String dir) throws IOException {
+		terms = map(dir + TERMS);
+		docs = map(dir + DOCS);
+		postings = map(dir + POSTINGS);
+
+		numTerms = header(terms, dir + TERMS);
+		numDocs = header(docs, dir + DOCS);
+		termStrings = HEADER + numTerms * TERM_ENTRY;
+		docStrings = HEADER + numDocs * DOC_ENTRY;
+		encoding = PostingsReader.NONE;
+		if (new File(dir + INVERTED).isFile()) {
+			inverted = map(dir + INVERTED);
+			if (header(inverted, dir + INVERTED) != numTerms) {
+				throw new IOException("Inverted postings do not match the terms: " + dir + INVERTED);
+			}
+			encoding = inverted.getInt(12);
+			invertedTable = (int) inverted.getLong(inverted.capacity() - 8);
+		}
+		termCache = new String[numTerms];
+		docCache = new String[numDocs];
+	}
+
+	public static boolean exists(String dir) {
+		return new File(dir + TERMS).isFile() && new File(dir + DOCS).isFile() && new File(dir + POSTINGS).isFile();
+	}
+
+	public static MappedIndex open(String dir) throws IOException {
+		return new MappedIndex(dir);
+	}
+
+	//the whole file, read only
+	static MappedByteBuffer map(String file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			checkSize(channel.size(), file);
+			//the mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	//a buffer holds at most Integer.MAX_VALUE bytes
+	static void checkSize(long size, String file) throws IOException {
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("File too large to map: " + file + " is " + size + " bytes");
+		}
+	}
+
+	private static int header(ByteBuffer buffer, String file) throws IOException {
+		if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not a binary index file: " + file);
+		}
+		return buffer.getInt(8);
+	}
+
+	private static String string(ByteBuffer buffer, int position) {
+		int length = buffer.getShort(position) & 0xFFFF;
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(position + 2 + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public int numTerms() {
+		return numTerms;
+	}
+	
+	//checksum of the terms, docs and postings, changes whenever the index is rebuilt differently
+	public long fingerprint() {
+		CRC32 crc = new CRC32();
+		byte[] chunk = new byte[8192];
+		for (ByteBuffer buffer : new ByteBuffer[]{terms, docs, postings}) {
+			ByteBuffer b = buffer.duplicate();
+			b.clear();
+			while (b.hasRemaining()) {
+				int n = Math.min(chunk.length, b.remaining());
+				b.get(chunk, 0, n);
+				crc.update(chunk, 0, n);
+			}
+		}
+		return crc.getValue();
+	}
+	
+	//PostingsReader.NONE if the index has no inverted postings file
+	public int encoding() {
+		return encoding;
+	}
+	
+	//documents containing a term, in increasing document id order, null without an inverted postings file
+	public PostingsReader postings(int id) {
+		if (inverted == null) {
+			return null;
+		}
+		int start = (int) inverted.getLong(invertedTable + id * 8);
+		return new PostingsReader(inverted, start, docFreq(id), encoding);
+	}
+	
+	public PostingsReader postings(String term) {
+		int id = termId(term);
+		if (id < 0) {
+			return null;
+		}
+		return postings(id);
+	}
+
+	public String term(int id) {
+		String t = termCache[id];
+		if (t == null) {
+			t = string(terms, termStrings + terms.getInt(HEADER + id * TERM_ENTRY));
+			termCache[id] = t;
+		}
+		return t;
+	}
+
+	public int termId(String term) {
+		int lo = 0;
+		int hi = numTerms - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = term(mid).compareTo(term);
+			if (c < 0) {
+				lo = mid + 1;
+			}
+			else if (c > 0) {
+				hi = mid - 1;
+			}
+			else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	public int docFreq(int id) {
+		return terms.getInt(HEADER + id * TERM_ENTRY + 4);
+	}
+
+	public String docName(int id) {
+		String d = docCache[id];
+		if (d == null) {
+			d = string(docs, docStrings + docs.getInt(HEADER + id * DOC_ENTRY));
+			docCache[id] = d;
+		}
+		return d;
+	}
+
+	public int docId(String doc) {
+		int lo = 0;
+		int hi = numDocs - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = docName(mid).compareTo(doc);
+			if (c < 0) {
+				lo = mid + 1;
+			}
+			else if (c > 0) {
+				hi = mid - 1;
+			}
+			else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	public DocStats docStats(int id) {
+		int entry = HEADER + id * DOC_ENTRY;
+		return new DocStats(docs.getInt(entry + 16), docs.getInt(entry + 20), docs.getInt(entry + 12));
+	}
+
+	public HashMap<String,Integer> getTerms(int id) {
+		int entry = HEADER + id * DOC_ENTRY;
+		int position = (int) docs.getLong(entry + 4);
+		int count = docs.getInt(entry + 12);
+
+		HashMap<String,Integer> vector = new HashMap<String,Integer>(count * 2);
+		for (int i = 0; i < count; i++) {
+			int termid = postings.getInt(position);
+			int tf = postings.getInt(position + 4);
+			vector.put(term(termid), Integer.valueOf(tf));
+			position += 8;
+		}
+		return vector;
+	}
+
+	@Override
+	public HashMap<String,Integer> get(Object doc) {
+		if (!(doc instanceof String)) {
+			return null;
+		}
+		int id = docId((String) doc);
+		if (id < 0) {
+			return null;
+		}
+		return getTerms(id);
+	}
+
+	@Override
+	public boolean containsKey(Object doc) {
+		return doc instanceof String && docId((String) doc) >= 0;
+	}
+
+	@Override
+	public int size() {
+		return numDocs;
+	}
+
+	//document names only, without decoding their terms
+	@Override
+	public Set<String> keySet() {
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new Iterator<String>() {
+					private int next = 0;
+
+					@Override
+					public boolean hasNext() {
+						return next < numDocs;
+					}
+
+					@Override
+					public String next() {
+						return docName(next++);
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object doc) {
+				return containsKey(doc);
+			}
+
+			@Override
+			public int size() {
+				return numDocs;
+			}
+		};
+	}
+
+	@Override
+	public Set<Map.Entry<String, HashMap<String,Integer>>> entrySet() {
+		return new AbstractSet<Map.Entry<String, HashMap<String,Integer>>>() {
+			@Override
+			public Iterator<Map.Entry<String, HashMap<String,Integer>>> iterator() {
+				return new Iterator<Map.Entry<String, HashMap<String,Integer>>>() {
+					private int next = 0;
+
+					@Override
+					public boolean hasNext() {
+						return next < numDocs;
+					}
+
+					@Override
+					public Map.Entry<String, HashMap<String,Integer>> next() {
+						int id = next++;
+						return new AbstractMap.SimpleImmutableEntry<String, HashMap<String,Integer>>(docName(id), getTerms(id));
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return numDocs;
+			}
+		};
+	}
+
+	//document frequencies straight out of the term dictionary
+	public Map<String,Integer> documentFrequencies() {
+		return new AbstractMap<String,Integer>() {
+			@Override
+			public Integer get(Object term) {
+				if (!(term instanceof String)) {
+					return null;
+				}
+				int id = termId((String) term);
+				if (id < 0) {
+					return null;
+				}
+				return Integer.valueOf(docFreq(id));
+			}
+
+			@Override
+			public boolean containsKey(Object term) {
+				return get(term) != null;
+			}
+
+			@Override
+			public Set<Map.Entry<String,Integer>> entrySet() {
+				HashMap<String,Integer> all = new HashMap<String,Integer>();
+				for (int i = 0; i < numTerms; i++) {
+					all.put(term(i), Integer.valueOf(docFreq(i)));
+				}
+				return Collections.unmodifiableMap(all).entrySet();
+			}
+		};
+	}
+
+	public Map<String,DocStats> documentStats() {
+		return new AbstractMap<String,DocStats>() {
+			@Override
+			public DocStats get(Object doc) {
+				if (!(doc instanceof String)) {
+					return null;
+				}
+				int id = docId((String) doc);
+				if (id < 0) {
+					return null;
+				}
+				return docStats(id);
+			}
+
+			@Override
+			public boolean containsKey(Object doc) {
+				return get(doc) != null;
+			}
+
+			@Override
+			public Set<Map.Entry<String,DocStats>> entrySet() {
+				HashMap<String,DocStats> all = new HashMap<String,DocStats>();
+				for (int i = 0; i < numDocs; i++) {
+					all.put(docName(i), docStats(i));
+				}
+				return Collections.unmodifiableMap(all).entrySet();
+			}
+		};
+	}
+
+	public static void write(String dir, Map<String, HashMap<String,Integer>> index) throws IOException {
+		write(dir, index, PostingsReader.VBYTE);
+	}
+
+	public static void write(String dir, Map<String, HashMap<String,Integer>> index, int encoding) throws IOException {
+		new File(dir).mkdirs();
+
+		//term ids are positions in the sorted vocabulary
+		HashMap<String,Integer> df = new HashMap<String,Integer>();
+		for (HashMap<String,Integer> vector : index.values()) {
+			for (String t : vector.keySet()) {
+				Integer m = df.get(t);
+				df.put(t, Integer.valueOf(m == null ? 1 : m.intValue() + 1));
+			}
+		}
+		String[] vocabulary = df.keySet().toArray(new String[df.size()]);
+		Arrays.sort(vocabulary);
+		HashMap<String,Integer> ids = new HashMap<String,Integer>();
+		for (int i = 0; i < vocabulary.length; i++) {
+			ids.put(vocabulary[i], Integer.valueOf(i));
+		}
+
+		//terms
+		ArrayList<byte[]> strings = new ArrayList<byte[]>();
+		for (String t : vocabulary) {
+			strings.add(t.getBytes(StandardCharsets.UTF_8));
+		}
+		checkSize(HEADER + (long) vocabulary.length * TERM_ENTRY + stringBytes(strings), dir + TERMS);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dir + TERMS)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(vocabulary.length);
+			int offset = 0;
+			for (int i = 0; i < vocabulary.length; i++) {
+				out.writeInt(offset);
+				out.writeInt(df.get(vocabulary[i]).intValue());
+				offset += 2 + strings.get(i).length;
+			}
+			writeStrings(out, strings);
+		}
+
+		//docs and postings
+		String[] names = index.keySet().toArray(new String[index.size()]);
+		Arrays.sort(names);
+		strings.clear();
+		for (String d : names) {
+			strings.add(d.getBytes(StandardCharsets.UTF_8));
+		}
+		checkSize(HEADER + (long) names.length * DOC_ENTRY + stringBytes(strings), dir + DOCS);
+		int[][] lists = new int[vocabulary.length][];
+		int[][] counts = new int[vocabulary.length][];
+		int[] fill = new int[vocabulary.length];
+		for (int i = 0; i < vocabulary.length; i++) {
+			lists[i] = new int[df.get(vocabulary[i]).intValue()];
+			counts[i] = new int[lists[i].length];
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dir + DOCS)));
+				DataOutputStream post = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dir + POSTINGS)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(names.length);
+			int offset = 0;
+			long position = 0;
+			for (int i = 0; i < names.length; i++) {
+				HashMap<String,Integer> vector = index.get(names[i]);
+				DocStats stats = new DocStats(vector);
+
+				int[] pairs = new int[vector.size() * 2];
+				int[] order = new int[vector.size()];
+				int j = 0;
+				for (String t : vector.keySet()) {
+					order[j++] = ids.get(t).intValue();
+				}
+				Arrays.sort(order);
+				for (j = 0; j < order.length; j++) {
+					pairs[2 * j] = order[j];
+					pairs[2 * j + 1] = vector.get(vocabulary[order[j]]).intValue();
+					
+					//documents are visited in id order, so every list stays sorted
+					int t = order[j];
+					lists[t][fill[t]] = i;
+					counts[t][fill[t]] = pairs[2 * j + 1];
+					fill[t]++;
+				}
+
+				out.writeInt(offset);
+				out.writeLong(position);
+				out.writeInt(stats.getUnique());
+				out.writeInt(stats.getLength());
+				out.writeInt(stats.getMaxTf());
+				offset += 2 + strings.get(i).length;
+
+				position += pairs.length * 4L;
+				checkSize(position, dir + POSTINGS);
+				for (int p : pairs) {
+					post.writeInt(p);
+				}
+			}
+			writeStrings(out, strings);
+		}
+
+		//inverted postings, the offset table goes at the end once the list sizes are known
+		if (encoding == PostingsReader.NONE) {
+			//an old one would not match the new terms
+			new File(dir + INVERTED).delete();
+			return;
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dir + INVERTED)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(vocabulary.length);
+			out.writeInt(encoding);
+			long[] offsets = new long[vocabulary.length];
+			long position = HEADER + 4;
+			for (int i = 0; i < vocabulary.length; i++) {
+				offsets[i] = position;
+				position += PostingsReader.write(out, lists[i], counts[i], lists[i].length, encoding);
+				checkSize(position + vocabulary.length * 8L + 8, dir + INVERTED);
+			}
+			for (long o : offsets) {
+				out.writeLong(o);
+			}
+			out.writeLong(position);
+		}
+	}
+
+	//bytes writeStrings writes
+	private static long stringBytes(ArrayList<byte[]> strings) {
+		long bytes = 0;
+		for (byte[] b : strings) {
+			bytes += 2 + b.length;
+		}
+		return bytes;
+	}
+
+	private static void writeStrings(DataOutputStream out, ArrayList<byte[]> strings) throws IOException {
+		for (byte[] b : strings) {
+			if (b.length > 0xFFFF) {
+				throw new IOException("String too long for the index: " + b.length + " bytes");
+			}
+			out.writeShort(b.length);
+			out.write(b);
+		}
+	}
+}
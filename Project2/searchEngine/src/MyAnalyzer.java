@@ -1,5 +1,6 @@
 import java.io.IOException;
 import java.io.Reader;
+import java.util.HashMap;
 
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.core.LowerCaseFilter;
@@ -7,6 +8,7 @@ import org.apache.lucene.analysis.core.StopFilter;
 import org.apache.lucene.analysis.en.PorterStemFilter;
 import org.apache.lucene.analysis.standard.StandardFilter;
 import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.util.CharArraySet;
 import org.apache.lucene.analysis.util.StopwordAnalyzerBase;
 import org.apache.lucene.util.Version;
@@ -17,7 +19,18 @@ public class MyAnalyzer extends StopwordAnalyzerBase {
 	/** Maximum allowed token length */
 	public static final int DEFAULT_MAX_TOKEN_LENGTH = 10000;
 
+	/** Surface forms whose stems are remembered by each token stream */
+	public static final int DEFAULT_STEM_CACHE_SIZE = 10000;
+
 	private int maxTokenLength = DEFAULT_MAX_TOKEN_LENGTH;
+	private final boolean stem;
+	private final int stemCacheSize;
+
+	//chain reused by countTerms, built on the first call
+	private StandardTokenizer source;
+	private TokenStream analyzed;
+	private CharTermAttribute term;
+	private TermCounter counter = new TermCounter();
 
 
 	/** Builds an analyzer with the given stop words.
@@ -28,7 +41,23 @@ public class MyAnalyzer extends StopwordAnalyzerBase {
 //		super(matchVersion, stopWords);
 //	}
 	public MyAnalyzer(CharArraySet stopWords) {
+		this(stopWords, true, DEFAULT_STEM_CACHE_SIZE);
+	}
+
+	/** Builds an analyzer with the given stop words that stems with the
+	 * Porter stemmer if stem is set, caching the stems of up to
+	 * stemCacheSize lowercased surface forms.
+	 * @param stopWords stop words
+	 * @param stem whether to stem
+	 * @param stemCacheSize size of the stem cache, 0 for none */
+	public MyAnalyzer(CharArraySet stopWords, boolean stem, int stemCacheSize) {
 		super(stopWords);
+		this.stem = stem;
+		this.stemCacheSize = stemCacheSize;
+	}
+
+	public boolean isStemming() {
+		return stem;
 	}
 
 	/**
@@ -64,14 +93,71 @@ public class MyAnalyzer extends StopwordAnalyzerBase {
 
 		// Add additional filters here 
 		tok = new StopFilter(tok, stopwords);
-
+		if (stem) {
+			//each stream gets its own cache, a stream is only used by one thread at a time
+			if (stemCacheSize > 0) {
+				tok = new StemCache(stemCacheSize).wrap(tok);
+			}
+			else {
+				tok = new PorterStemFilter(tok);
+			}
+		}
 
 		return new TokenStreamComponents(src, tok) {
 			@Override
 			protected void setReader(final Reader reader) throws IOException {
-				src.setMaxTokenLength(MyAnalyzer.this.maxTokenLength);
+				if (src.getMaxTokenLength() != MyAnalyzer.this.maxTokenLength) {
+					src.setMaxTokenLength(MyAnalyzer.this.maxTokenLength);
+				}
 				super.setReader(reader);
 			}
 		};
 	}
+
+	/**
+	 * Runs the text through the analyzer and counts every term.  The chain
+	 * is built once and reused for every call, and terms are counted off its
+	 * char buffer, so repeated tokens create no garbage.
+	 * An analyzer is not thread safe, give each thread its own.
+	 */
+	public HashMap<String,Integer> countTerms(Reader reader) {
+		counter.clear();
+		
+		//tokenize, remove stop words, and stem
+		try {
+			if (source == null) {
+				TokenStreamComponents tsc = createComponents("contents",reader);
+				source = (StandardTokenizer) tsc.getTokenizer();
+				analyzed = tsc.getTokenStream();
+				term = analyzed.addAttribute(CharTermAttribute.class);
+			}
+			else {
+				//setting the length reallocates the scanner buffer, only do it when it changed
+				if (source.getMaxTokenLength() != maxTokenLength) {
+					source.setMaxTokenLength(maxTokenLength);
+				}
+				source.setReader(reader);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		try {
+			analyzed.reset();
+			while (analyzed.incrementToken()) {
+				counter.add(term.buffer(), term.length());
+			}
+			analyzed.end();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			//closing lets the tokenizer take the next reader
+			try {
+				analyzed.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		return counter.toMap();
+	}
 }
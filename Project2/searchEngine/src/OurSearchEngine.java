@@ -1,28 +1,41 @@
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
-import org.apache.lucene.analysis.Analyzer.TokenStreamComponents;
-import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.util.CharArraySet;
-import org.apache.lucene.analysis.en.PorterStemFilter;
 
 public class OurSearchEngine {
 	
-	private HashMap<String,HashMap<String,Integer>> index;
-	private String indexfile;
-	private MyAnalyzer analyzer;
+	private Map<String,HashMap<String,Integer>> index;
+	private Map<String,Integer> df;
+	private Map<String,DocStats> stats;
+	//queries may be tokenized on several threads, each one gets its own analyzer
+	private ThreadLocal<MyAnalyzer> analyzers;
+	private CharArraySet stopwords;
+	private int indexThreads = Runtime.getRuntime().availableProcessors();
 	private String docPath;
 	private HashMap<String, HashMap<String,Double>> tfidf;
 	private HashMap<String, HashMap<String,Double>> failureAnalysis;
-	private HashMap<String, HashMap<String,Double>> normalizedDocs;
+	private DocVectors normalizedDocs;
+	private InvertedIndex inverted;
+	private int postingsEncoding = PostingsReader.NONE;
+	private int queryThreads = Runtime.getRuntime().availableProcessors();
+	private QueryCache queryCache = new QueryCache(1000, 0);
+	private int clusterThreads = Runtime.getRuntime().availableProcessors();
+	private ForkJoinPool clusterPool;
+	private CorpusClusters corpusClusters;
+	private Centroids centroids;
+	private boolean impactOrdered;
+	private ImpactIndex impacts;
 	boolean print;
 	
 	public OurSearchEngine() {
 		index = new HashMap<String,HashMap<String,Integer>>();
+		df = new HashMap<String,Integer>();
+		stats = new HashMap<String,DocStats>();
 		
 		//need stopwords
-		CharArraySet stopwords = new CharArraySet(0, false);
+		stopwords = new CharArraySet(0, false);
 		String stopwordfile = "data/stopwords/stopwords_indri.txt";
 		try {
 			BufferedReader swr = new BufferedReader(new FileReader(stopwordfile));
@@ -35,10 +48,91 @@ public class OurSearchEngine {
 			System.out.println("Could not read the stop word file");
 		}
 				
-		analyzer = new MyAnalyzer(stopwords);
+		analyzers = new ThreadLocal<MyAnalyzer>() {
+			@Override
+			protected MyAnalyzer initialValue() {
+				return new MyAnalyzer(stopwords);
+			}
+		};
 		failureAnalysis = new HashMap<String, HashMap<String,Double>>();
 	}
 	
+	//how buildIndex writes the inverted postings, PostingsReader.RAW or PostingsReader.VBYTE,
+	//or PostingsReader.NONE (the default) for none, the engine scores from its own InvertedIndex
+	public void setPostingsEncoding(int encoding) {
+		postingsEncoding = encoding;
+	}
+	
+	//threads used to tokenize documents in buildIndex
+	public void setIndexThreads(int threads) {
+		indexThreads = threads;
+	}
+	
+	//results of recent queries, cleared whenever the index or normalizedDocs change
+	public QueryCache getQueryCache() {
+		return queryCache;
+	}
+	
+	//threads used to run the queries of problem2, rocchio and rocchio2
+	public void setQueryThreads(int threads) {
+		queryThreads = threads;
+	}
+	
+	//threads used to compute the distances between the documents to cluster
+	public synchronized void setClusterThreads(int threads) {
+		clusterThreads = threads;
+		clusterPool = null;
+	}
+	
+	private synchronized ForkJoinPool clusterPool() {
+		if (clusterPool == null && clusterThreads > 1) {
+			clusterPool = new ForkJoinPool(clusterThreads);
+		}
+		return clusterPool;
+	}
+	
+	/**
+	 * getResults(query, q0, q1, q2, k) walks postings ordered by impact and
+	 * stops once the rest cannot change the top k, instead of scoring every
+	 * document with a query term.  The results are the same, ties included;
+	 * compareImpactOrdered() checks it.  Built from normalizedDocs when first
+	 * used.
+	 */
+	public synchronized void setImpactOrdered(boolean impactOrdered) {
+		this.impactOrdered = impactOrdered;
+	}
+	
+	//the impact ordered postings of normalizedDocs, null if they are not used
+	private synchronized ImpactIndex impacts() {
+		if (impacts == null && impactOrdered && inverted != null) {
+			impacts = new ImpactIndex(inverted);
+		}
+		return impactOrdered ? impacts : null;
+	}
+	
+	/** What one evaluated query hands back: its average precisions and
+	 * whatever it would have printed, held until it is its turn to print.
+	 */
+	private static class QueryResult {
+		double apOld;
+		double apNew;
+		StringWriter buffer = new StringWriter();
+		PrintWriter out = new PrintWriter(buffer);
+		
+		String text() {
+			out.flush();
+			return buffer.toString();
+		}
+	}
+	
+	/**
+	 * Runs the task for every query.  Once the index and normalizedDocs are set
+	 * the engine is only read, so the queries can run at the same time.
+	 */
+	<T> LinkedHashMap<Integer,T> runQueries(Map<Integer,String> queries, QueryRunner.Task<T> task) {
+		return new QueryRunner(queryThreads).run(queries, task);
+	}
+	
 	public HashMap<String,Integer> getTerms(String doc) {
 		return index.get(doc);
 	}
@@ -47,6 +141,105 @@ public class OurSearchEngine {
 		return index.values();
 	}
 	
+	//a mapped index is read only, copy it into memory before changing it
+	private void writable() {
+		if (!(index instanceof HashMap)) {
+			index = new HashMap<String,HashMap<String,Integer>>(index);
+			df = new HashMap<String,Integer>(df);
+			stats = new HashMap<String,DocStats>(stats);
+		}
+	}
+	
+	public void addDocument(String doc, HashMap<String,Integer> terms) {
+		writable();
+		queryCache.clear();
+		
+		//replacing a document, take its old terms out of df first
+		if (index.containsKey(doc)) {
+			removeDocument(doc);
+		}
+		index.put(doc, terms);
+		stats.put(doc, new DocStats(terms));
+		
+		for (String t : terms.keySet()) {
+			Integer m = df.get(t);
+			if (m != null) {
+				df.put(t, Integer.valueOf(m.intValue() + 1));
+			}
+			else {
+				df.put(t, Integer.valueOf(1));
+			}
+		}
+	}
+	
+	public void removeDocument(String doc) {
+		writable();
+		queryCache.clear();
+		
+		HashMap<String,Integer> terms = index.remove(doc);
+		stats.remove(doc);
+		if (terms == null) {
+			return;
+		}
+		
+		for (String t : terms.keySet()) {
+			Integer m = df.get(t);
+			if (m == null) {
+				continue;
+			}
+			if (m.intValue() > 1) {
+				df.put(t, Integer.valueOf(m.intValue() - 1));
+			}
+			else {
+				df.remove(t);
+			}
+		}
+	}
+	
+	//count the documents each term appears in, one pass over the index
+	private HashMap<String,Integer> documentFrequencies() {
+		HashMap<String,Integer> counts = new HashMap<String,Integer>();
+		for (HashMap<String,Integer> terms : index.values()) {
+			for (String t : terms.keySet()) {
+				Integer m = counts.get(t);
+				if (m != null) {
+					counts.put(t, Integer.valueOf(m.intValue() + 1));
+				}
+				else {
+					counts.put(t, Integer.valueOf(1));
+				}
+			}
+		}
+		return counts;
+	}
+	
+	private HashMap<String,DocStats> documentStats() {
+		HashMap<String,DocStats> all = new HashMap<String,DocStats>();
+		for (String doc : index.keySet()) {
+			all.put(doc, new DocStats(index.get(doc)));
+		}
+		return all;
+	}
+	
+	private static Object load(String file) {
+		File f = new File(file);
+		if (!f.exists() || f.isDirectory()) {
+			return null;
+		}
+		try(
+				InputStream in = new FileInputStream(f);
+				InputStream buffer = new BufferedInputStream(in);
+				ObjectInput input = new ObjectInputStream(buffer);
+			){
+				return input.readObject();
+			}
+		catch(ClassNotFoundException ex){
+		}
+		catch(IOException ex){
+		}
+		return null;
+	}
+	
 	public void buildIndex(String docsPath, String indexPath) {
 		// Check whether docsPath is valid
 		if (docsPath == null || docsPath.isEmpty()) {
@@ -69,26 +262,20 @@ public class OurSearchEngine {
 			System.exit(1);
 		}
 		
-		indexfile = indexPath + "/index";
-
 		System.out.println("Document directory '" +docDir.getAbsolutePath());
 		Date start = new Date();
 		index = new HashMap<String,HashMap<String,Integer>>();
+		df = new HashMap<String,Integer>();
+		stats = new HashMap<String,DocStats>();
+		queryCache.clear();
 		this.indexDocs(docDir);
 		
-		analyzer.close();
+		analyzers.get().close();
+		analyzers.remove();
 		
-		//save index
-		File iFile = new File(indexfile);
-        FileOutputStream f;
-        ObjectOutputStream s;
+		//save index, document frequencies and stats in the binary layout
 		try {
-			f = new FileOutputStream(iFile);
-			s = new ObjectOutputStream(f);
-			s.writeObject(index);
-	        s.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+			MappedIndex.write(indexPath, index, postingsEncoding);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -99,78 +286,20 @@ public class OurSearchEngine {
 	}
 	
 	public HashMap<String,Integer> tokenize(Reader reader) {
-		// make a new, empty document
-		HashMap<String,Integer> terms = new HashMap<String,Integer>();
-		
 		//tokenize, remove stop words, and stem
-		TokenStreamComponents tsc = analyzer.createComponents("contents",reader);
-		TokenStream ts = tsc.getTokenStream();
-		PorterStemFilter psf = new PorterStemFilter(ts);
-		CharTermAttribute cattr = psf.addAttribute(CharTermAttribute.class);
-		try {
-			psf.reset();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			while (psf.incrementToken()) {
-			  String t = cattr.toString();
-			  Integer v = terms.get(t);
-			  if (v!=null) {
-				  terms.put(t, new Integer(v.intValue() + 1));
-			  }
-			  else {
-				  terms.put(t, new Integer(1));
-			  }
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			psf.end();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			psf.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		
-		return terms;
+		return analyzers.get().countTerms(reader);
 	}
 	
 	
 	void indexDocs(File file)  {
-		if (file.canRead()) {
-			if (file.isDirectory()) {
-				String[] files = file.list();
-				if (files != null) {
-					for (int i = 0; i < files.length; i++) {
-						indexDocs(new File(file, files[i]));
-					}
-				}
-			} else {
-				// make a new, empty document
-				String doc = file.getName();
-				FileInputStream fis = null;
-				
-				if (doc.endsWith(".txt")){
-					doc = doc.substring(0, doc.length()-".txt".length());
-					
-					try {
-						fis = new FileInputStream(file);
-					} catch (FileNotFoundException e) {
-						System.out.println(" caught a " + e.getClass() + "\n with message: " + e.getMessage());
-					}
-					
-					BufferedReader reader = new BufferedReader(new InputStreamReader(fis));
-
-					HashMap<String,Integer> terms = tokenize(reader);
-						
-					index.put(doc, terms);
-				}
-			}
+		ArrayList<File> files = new ArrayList<File>();
+		ParallelIndexer.listFiles(file, files);
+		
+		//tokenize on several threads, then add in file order
+		ParallelIndexer indexer = new ParallelIndexer(stopwords, indexThreads);
+		ArrayList<HashMap<String,Integer>> terms = indexer.tokenize(files);
+		for (int i = 0; i < files.size(); i++) {
+			addDocument(ParallelIndexer.docName(files.get(i)), terms.get(i));
 		}
 	}
 	
@@ -204,25 +333,35 @@ public class OurSearchEngine {
 		return null;
 	}
 	
-	HashMap<String,HashMap<String,Double>> normalizeIndex(char d2, HashMap<String,HashMap<String,Double>> vec) {
-		HashMap<String,HashMap<String,Double>> normalized = new HashMap<String,HashMap<String,Double>>();
+	SparseVector normalize(char d2, SparseVector vector) {
+		switch(d2) {
+			case 'n':
+				return vector;
+			case 'c':
+				return vector.divide(vector.length());
+		}
+		return null;
+	}
+	
+	DocVectors normalizeIndex(char d2, DocVectors vec) {
+		SparseVector[] normalized = new SparseVector[vec.size()];
 		//for each document in the index, call normalize
-		for (String document : vec.keySet()) {
-			HashMap<String,Double> normalizedTokens = normalize(d2, vec.get(document));
-			normalized.put(document, normalizedTokens);
+		for (int d = 0; d < vec.size(); d++) {
+			normalized[d] = normalize(d2, vec.get(d));
 		}
-		return normalized;
+		return vec.with(normalized);
 	}
 	
 	double raw_tf(String term, HashMap<String,Integer> terms) {
+		return raw_tf(term, terms, new DocStats(terms));
+	}
+	
+	double raw_tf(String term, HashMap<String,Integer> terms, DocStats stats) {
 		if (terms != null) {
 			Integer v = terms.get(term);
 			if (v != null) {
 				double freq = v.doubleValue();
-				double total = 0.0;
-				for (Integer t : terms.values()) {
-					total += t.doubleValue();
-				}
+				double total = stats.getLength();
 				if (total != 0) {
 					return freq / total;
 				}
@@ -232,26 +371,23 @@ public class OurSearchEngine {
 	}
 	
 	double tf(String term, HashMap<String,Integer> terms, char type) {
-		double raw = raw_tf(term, terms);
+		return tf(term, terms, new DocStats(terms), type);
+	}
+	
+	double tf(String term, HashMap<String,Integer> terms, DocStats stats, char type) {
+		double raw = raw_tf(term, terms, stats);
 		switch(type) {
 			case 'n':
 				return raw;
 			case 'l':
 				return 1 + Math.log(raw);
 			case 'a':
-				//get the most common term
-				String mostCommonTerm = "";
-				int count = 0;
-				for (String t : terms.keySet()) {
-					if (terms.get(t).intValue() > count) {
-						mostCommonTerm = t;
-						count = terms.get(t).intValue();
-					}
+				//tf of the most common term
+				double maxtf = 0.0;
+				if (stats.getLength() != 0) {
+					maxtf = stats.getMaxTf() / (double) stats.getLength();
 				}
 				
-				//get tf of most common term
-				double maxtf = raw_tf(mostCommonTerm, terms);
-				
 				return 0.5 + 0.5 * raw / maxtf;
 			case 'b':
 				if (raw > 0) {
@@ -267,10 +403,9 @@ public class OurSearchEngine {
 	double idf(String term, char type) {
 		double total = index.size();
 		double match = 0.0;
-		for (HashMap <String,Integer> doc : index.values()) {
-			if (doc.containsKey(term)) {
-				match++;
-			}
+		Integer m = df.get(term);
+		if (m != null) {
+			match = m.doubleValue();
 		}
 		
 		switch(type){
@@ -289,101 +424,116 @@ public class OurSearchEngine {
 		return 0.0;
 	}
 	
-	static LinkedList<String> priority(Document[] docs, int k){
-		DocumentComparator dc = new DocumentComparator();
-		
-		//Sorting O(n * log(n))
-		Arrays.sort(docs, dc);
-		
-		LinkedList<String> resultDocuments = new LinkedList<String>();
-		for(int j=0; j<Math.min(k, docs.length); j++){
-			resultDocuments.add(docs[j].getName());
-		}
+	static ArrayList<String> priority(Document[] docs, int k){
+		//Heap of the best k O(n * log(k))
+		TopKCollector top = new TopKCollector(k);
+		top.collectAll(docs);
 
-		return resultDocuments;
+		return top.getResults();
 	}
 	
 	HashMap<String, Double> getRanks(String query, char q0, char q1, char q2) {
+		return rank(query, q0, q1, q2).getRanks();
+	}
+	
+	//scores the query, or finds the scores of an earlier query with the same terms and weighting
+	QueryCache.Entry rank(String query, char q0, char q1, char q2) {
 		//stemming and stopping
 				StringReader reader = new StringReader(query);
 				HashMap<String,Integer> tokens = tokenize(reader);
-				
-				//calculate query vector
-				HashMap<String, Double> queryVector = new HashMap<String,Double>();
-				for (String t : tokens.keySet()) {
-					double qtf = tf(t, tokens, q0);
-					double qidf = idf(t, q1);
-					queryVector.put(t, new Double(qtf*qidf));
+				String key = QueryCache.key(tokens, "" + q0 + q1 + q2);
+				QueryCache.Entry cached = queryCache.get(key);
+				if (cached != null) {
+					return cached;
 				}
 				
-				//normalization
-				HashMap<String,Double> normalizedQueries = normalize(q2, queryVector);
-				
-				//scores
-				HashMap<String, Double> ranks = new HashMap<String, Double>();
+				HashMap<String,Double> normalizedQueries = queryVector(tokens, q0, q1, q2);
 				
-				//comment out to run with inverted tfidf
-				for (String t : normalizedQueries.keySet()) {
-					Double qScore = normalizedQueries.get(t);
-					if (qScore != null) {
-						for (String d : normalizedDocs.keySet()) {
-							HashMap<String,Double> scores = normalizedDocs.get(d);
-							if (!ranks.containsKey(d)) {
-								ranks.put(d, new Double(0));
-							}
-									
-							Double s = scores.get(t);
-							if (s != null) {
-								Double r = ranks.get(d);
-								double r2 = 0;
-								if (r != null) {
-									r2 = r.doubleValue();
-								}
-								ranks.put(d, new Double(r2 + s.doubleValue()*qScore.doubleValue()));
-							}
-						}
-					}
-				}
+				//scores, only documents in the postings of a query term are touched
+				HashMap<String, Double> ranks = inverted.score(normalizedQueries);
 		
-			return ranks;
+			return queryCache.put(key, ranks);
 	}
 	
-	LinkedList<String> getResults(String query, char q0, char q1, char q2, int k) {
-		HashMap<String, Double> ranks = getRanks(query, q0, q1, q2);
+	//weighted and normalized query terms
+	HashMap<String,Double> queryVector(HashMap<String,Integer> tokens, char q0, char q1, char q2) {
+		//calculate query vector
+		HashMap<String, Double> queryVector = new HashMap<String,Double>();
+		DocStats qstats = new DocStats(tokens);
+		for (String t : tokens.keySet()) {
+			double qtf = tf(t, tokens, qstats, q0);
+			double qidf = idf(t, q1);
+			queryVector.put(t, Double.valueOf(qtf*qidf));
+		}
 		
-		Document[] docs = new Document[ranks.size()];
-		int i = 0;
-		for (String doc : ranks.keySet()) {
-			Document d = new Document(doc,ranks.get(doc).doubleValue());
-			docs[i] = d;
-			i++;
+		//normalization
+		return normalize(q2, queryVector);
+	}
+	
+	ArrayList<String> getResults(String query, char q0, char q1, char q2, int k) {
+		ImpactIndex impacts = impacts();
+		if (impacts != null) {
+			//score at a time, only the top k are needed so the scores are not cached
+			HashMap<String,Integer> tokens = tokenize(new StringReader(query));
+			HashMap<String,Double> vector = queryVector(tokens, q0, q1, q2);
+			return (vector == null) ? new ArrayList<String>() : impacts.top(vector, k);
 		}
+		return getResults(rank(query, q0, q1, q2), k);
+	}
+	
+	//best k documents of a scored query
+	ArrayList<String> getResults(QueryCache.Entry entry, int k) {
+		ArrayList<String> cached = entry.getTop(k);
+		if (cached != null) {
+			return cached;
+		}
+		ArrayList<String> top = getResults(entry.getRanks(), k);
+		entry.setTop(k, top);
 		
-		LinkedList<String> top = priority(docs, k);
+		return new ArrayList<String>(top);
+	}
+	
+	//best k documents of a score map, ties in name order as in ImpactIndex.top
+	static ArrayList<String> getResults(HashMap<String, Double> ranks, int k) {
+		TopKCollector top = new TopKCollector(k, true);
+		for (String doc : ranks.keySet()) {
+			top.collect(new Document(doc, ranks.get(doc).doubleValue()));
+		}
 		
-		return top;
+		return top.getResults();
 	}
 	
 	public void loadIndex(String indexDir, String docDir) {
-		File f = new File(indexDir + "/index");
-		if(f.exists() && !f.isDirectory() && docPath!=docDir) {
-			try(
-					InputStream file = new FileInputStream(indexDir + "/index");
-					InputStream buffer = new BufferedInputStream(file);
-					ObjectInput input = new ObjectInputStream (buffer);
-				){
-					System.out.println("Loading index...");
-					//deserialize the List
-					HashMap<String, HashMap<String,Integer>> temp = (HashMap<String, HashMap<String,Integer>>)input.readObject();
-					//display its data
-					if (temp != null) {
-						index = temp;
-						docPath = docDir;
-					}
-				}
-			catch(ClassNotFoundException ex){
+		if (MappedIndex.exists(indexDir) && docPath!=docDir) {
+			try {
+				System.out.println("Loading index...");
+				//only maps the files, terms are read when a document is asked for
+				MappedIndex mapped = MappedIndex.open(indexDir);
+				index = mapped;
+				queryCache.clear();
+				df = mapped.documentFrequencies();
+				stats = mapped.documentStats();
+				docPath = docDir;
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-			catch(IOException ex){
+		}
+		
+		//older indexes are a serialized HashMap, convert them once
+		if (docPath!=docDir) {
+			HashMap<String, HashMap<String,Integer>> temp = (HashMap<String, HashMap<String,Integer>>)load(indexDir + "/index");
+			if (temp != null) {
+				System.out.println("Converting index...");
+				index = temp;
+				queryCache.clear();
+				df = documentFrequencies();
+				stats = documentStats();
+				docPath = docDir;
+				try {
+					MappedIndex.write(indexDir, index, postingsEncoding);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
 			}
 		}
 		
@@ -394,119 +544,328 @@ public class OurSearchEngine {
 		}
 	}
 	
-	private HashMap<String,HashMap<String,Double>> getDocVector(char d0, char d1) {
-		HashMap<String,HashMap<String,Double>> docVector = new HashMap<String,HashMap<String,Double>>();
+	void setNormalizedDocs(DocVectors docs) {
+		normalizedDocs = docs;
+		queryCache.clear();
+		corpusClusters = null;
+		centroids = new Centroids(docs);
+		synchronized (this) {
+			impacts = null;
+		}
+		
+		//keep the postings in sync with the document vectors
+		inverted = new InvertedIndex(docs);
+	}
+	
+	private DocVectors getDocVector(char d0, char d1) {
+		//terms and documents get dense ids, each vector is a pair of arrays
+		TermDictionary termIds;
+		TermDictionary docIds;
+		if (index instanceof MappedIndex) {
+			//the ids of the mapped index, so the vectors can be saved with it
+			termIds = VectorStore.terms((MappedIndex) index);
+			docIds = VectorStore.docs((MappedIndex) index);
+		}
+		else {
+			termIds = new TermDictionary(df.size());
+			docIds = new TermDictionary(index.size());
+		}
+		SparseVector[] vectors = new SparseVector[index.size()];
 		for (String doc: index.keySet()) {
 			HashMap<String,Integer> terms = index.get(doc);
+			DocStats docStats = stats.get(doc);
+			int[] ids = new int[terms.size()];
+			double[] weights = new double[terms.size()];
+			int i = 0;
 			for (String t: terms.keySet()) {
-				double dtf = tf(t, terms, d0);
+				double dtf = tf(t, terms, docStats, d0);
 				double didf = idf(t, d1);
 				
-				if (!docVector.containsKey(doc)) {
-					docVector.put(doc, new HashMap<String,Double>());
-				}
-				HashMap<String,Double> vec = docVector.get(doc);
-				vec.put(t, new Double(dtf*didf));
+				ids[i] = termIds.add(t);
+				weights[i] = dtf*didf;
+				i++;
 			}
+			vectors[docIds.add(doc)] = SparseVector.sorted(ids, weights, i);
 		}
 		
-		return docVector;
+		return new DocVectors(termIds, docIds, vectors);
 	}
 	
-	public LinkedList<Cluster> completeLinkCluster(List<String> results, int K) {
-		//calculate distances
-		double[][] distances = new double[results.size()][results.size()];
-		for (int i=0; i<results.size(); i++) {
-			distances[i][i] = 1;
-			
-			for (int j=i+1; j<results.size(); j++) {
-				String doci = results.get(i);
-				String docj = results.get(j);
-				
-				HashMap<String,Double> termsi = normalizedDocs.get(doci);
-				HashMap<String,Double> termsj = normalizedDocs.get(docj);
-				
-				// calculate dot product
-				double d = 0.0;
-				for (String t: termsi.keySet()) {
-					if (termsj.containsKey(t)) {
-						double d1 = termsi.get(t).doubleValue();
-						double d2 = termsj.get(t).doubleValue();
-						
-						d += d1*d2;
-					}
+	/**
+	 * Weighted and normalized document vectors of the scheme.  For a mapped
+	 * index they are saved in the index directory the first time and mapped
+	 * back on later runs, as long as the index has not been rebuilt.
+	 */
+	DocVectors documentVectors(String indexDir, char d0, char d1, char d2) {
+		String scheme = "" + d0 + d1 + d2;
+		MappedIndex mapped = null;
+		if (index instanceof MappedIndex) {
+			mapped = (MappedIndex) index;
+			try {
+				DocVectors saved = VectorStore.load(indexDir, scheme, mapped);
+				if (saved != null) {
+					System.out.println("Loading document vectors...");
+					return saved;
 				}
-				
-				// 1 / dot product
-				if (d != 0.0){
-					d = 1 / d;
-				}
-				else {
-					d = Double.MAX_VALUE;
-				}
-				
-				distances[i][j] = d;
-				distances[j][i] = d;
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
 		}
 		
-		LinkedList<Cluster> clusters = new LinkedList<Cluster>();
+		//calculating tfidf for documents
+		System.out.println("Calculating tfidf for documents...");
+		DocVectors docVector = getDocVector(d0, d1);
+		
+		//normalize the documents
+		System.out.println("Normalize documents...");
+		DocVectors normalized = normalizeIndex(d2, docVector);
 		
-		//make a new cluster for each document
-		for (int i=0; i<results.size(); i++) {
-			LinkedList<String> d = new LinkedList<String>();
-			d.add(results.get(i));
-			clusters.add(new Cluster(d, distances[i], i));
+		if (mapped != null && normalized.size() > 0 && normalized.get(0) != null) {
+			try {
+				VectorStore.write(indexDir, scheme, mapped, normalized);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
+		return normalized;
+	}
+	
+	public LinkedList<Cluster> completeLinkCluster(List<String> results, int K) {
+		return cluster(results, K, HierarchicalClusterer.COMPLETE);
+	}
+	
+	//linkage is HierarchicalClusterer.COMPLETE, SINGLE or AVERAGE
+	public LinkedList<Cluster> cluster(List<String> results, int K, int linkage) {
+		int n = results.size();
+		SparseVector[] vectors = new SparseVector[n];
+		for (int i=0; i<n; i++) {
+			vectors[i] = normalizedDocs.get(results.get(i));
+		}
+		
+		//calculate distances, row major
+		double[] distances = DistanceMatrix.compute(vectors, clusterPool());
 		
 		//merge clusters
-		while (clusters.size() > K) {
-			double smallest = Double.MAX_VALUE;
-			int c1 = 0;
-			int c2 = 0;
-			
-			for (int i=0; i<clusters.size(); i++) {
-				double s = clusters.get(i).getSmallestDistance();
-				if (s < smallest) {
-					c1 = i;
-					smallest = s;
-					int index = clusters.get(i).getIndexOfSmallestDistance();
-					c2 = index;
-				}
-			}
-			
-			clusters.get(c1).completeLinkMerge(clusters.get(c2));
-			
-			for (int i=0; i<clusters.size(); i++) {
-				clusters.get(i).removeDistance(c2);
-				if (i > c2) {
-					clusters.get(i).setIndex(i - 1);
+		HierarchicalClusterer link = new HierarchicalClusterer(distances, results, linkage);
+		link.cluster(K);
+		LinkedList<Cluster> clusters = link.getClusters();
+		
+		return clusters;
+	}
+	
+	//seed and most k-means rounds of the corpus clusters
+	static final long CLUSTER_SEED = 1;
+	static final int CLUSTER_ROUNDS = 20;
+	
+	/**
+	 * At most k clusters of the whole collection, from the current
+	 * normalizedDocs.  For a mapped index they are saved in the index
+	 * directory the first time and read back on later runs.
+	 */
+	CorpusClusters corpusClusters(String indexDir, String scheme, int k) {
+		MappedIndex mapped = null;
+		if (index instanceof MappedIndex) {
+			mapped = (MappedIndex) index;
+			try {
+				CorpusClusters saved = ClusterStore.load(indexDir, scheme, k, CLUSTER_SEED, mapped);
+				if (saved != null) {
+					System.out.println("Loading clusters...");
+					return saved;
 				}
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-			clusters.remove(c2);
 		}
 		
+		System.out.println("Clustering documents...");
+		CorpusClusters clusters = CorpusClusters.build(normalizedDocs, k, CLUSTER_ROUNDS, CLUSTER_SEED);
+		
+		if (mapped != null) {
+			try {
+				ClusterStore.write(indexDir, scheme, k, CLUSTER_SEED, mapped, clusters);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 		return clusters;
 	}
 	
-	public static void problem2(OurSearchEngine ose, String docDir, String indexDir,
-	           String queryFile, String answerFile, int numResults, char[] weights, int K, boolean highest, boolean print) {
+	//clusters must come from the current normalizedDocs
+	void setCorpusClusters(CorpusClusters clusters) {
+		corpusClusters = clusters;
+	}
+	
+	/**
+	 * Scores of the documents in the probe clusters whose centroids are
+	 * closest to the query, the other documents are not looked at.
+	 */
+	HashMap<String, Double> getClusterRanks(String query, char q0, char q1, char q2, int probe) {
+		HashMap<String,Integer> tokens = tokenize(new StringReader(query));
+		SparseVector q = normalizedDocs.vector(queryVector(tokens, q0, q1, q2));
+		
+		HashMap<String, Double> ranks = new HashMap<String, Double>();
+		for (int c : corpusClusters.bestClusters(q, probe)) {
+			for (int d : corpusClusters.members(c)) {
+				double score = normalizedDocs.get(d).dot(q);
+				if (score != 0.0) {
+					ranks.put(normalizedDocs.getDocs().get(d), Double.valueOf(score));
+				}
+			}
+		}
+		return ranks;
+	}
+	
+	ArrayList<String> getClusterResults(String query, char q0, char q1, char q2, int k, int probe) {
+		HashMap<String, Double> ranks = getClusterRanks(query, q0, q1, q2, probe);
+		Document[] docs = new Document[ranks.size()];
+		int i = 0;
+		for (String doc : ranks.keySet()) {
+			docs[i] = new Document(doc, ranks.get(doc).doubleValue());
+			i++;
+		}
+		return priority(docs, k);
+	}
+	
+	//number of documents in the probe clusters closest to the query
+	int clusterDocuments(String query, char q0, char q1, char q2, int probe) {
+		HashMap<String,Integer> tokens = tokenize(new StringReader(query));
+		SparseVector q = normalizedDocs.vector(queryVector(tokens, q0, q1, q2));
+		int count = 0;
+		for (int c : corpusClusters.bestClusters(q, probe)) {
+			count += corpusClusters.members(c).length;
+		}
+		return count;
+	}
+	
+	/**
+	 * Cluster based retrieval against scoring every document: MAP of both,
+	 * and how many documents a query scores in each.
+	 */
+	public static void clusterRetrieval(final OurSearchEngine ose, String docDir, String indexDir,
+	           String queryFile, String answerFile, final int numResults, char[] weights, int numClusters, final int probe) {
 		//get weights
 		char d0 = weights[0];
 		char d1 = weights[1];
 		char d2 = weights[2];
+		final char q0 = weights[3];
+		final char q1 = weights[4];
+		final char q2 = weights[5];
+		
+		System.out.println("" + d0 + d1  + d2 + "." + q0 + q1 + q2);
+		
+		//Load index
+		ose.loadIndex(indexDir, docDir);
+		
+		// load queries and answer
+		System.out.println("Loading queries and answers...");
+		Map<Integer, String> queries = EvaluateQueries.loadQueries(queryFile);
+		final Map<Integer, HashSet<String>> queryAnswers = EvaluateQueries.loadAnswers(answerFile);
+		
+		ose.setNormalizedDocs(ose.documentVectors(indexDir, d0, d1, d2));
+		ose.setCorpusClusters(ose.corpusClusters(indexDir, "" + d0 + d1 + d2, numClusters));
+		System.out.println("Clusters: " + ose.corpusClusters.size() + ", probe: " + probe);
+		
+		// Search and evaluate
+		System.out.println("Evaluating...");
+		LinkedHashMap<Integer, double[]> evaluated = ose.runQueries(queries, new QueryRunner.Task<double[]>() {
+			@Override
+			public double[] run(Integer i, String query) {
+				ArrayList<String> full = ose.getResults(query, q0, q1, q2, numResults);
+				ArrayList<String> clustered = ose.getClusterResults(query, q0, q1, q2, numResults, probe);
+				double[] result = new double[4];
+				result[0] = EvaluateQueries.averagePrecision(queryAnswers.get(i), full);
+				result[1] = EvaluateQueries.averagePrecision(queryAnswers.get(i), clustered);
+				result[2] = ose.getRanks(query, q0, q1, q2).size();
+				result[3] = ose.clusterDocuments(query, q0, q1, q2, probe);
+				return result;
+			}
+		});
+		
+		double[] sums = new double[4];
+		for (double[] result : evaluated.values()) {
+			for (int j = 0; j < sums.length; j++) {
+				sums[j] += result[j];
+			}
+		}
+		int n = queries.size();
+		System.out.println("MAP all documents: " + sums[0] / n);
+		System.out.println("MAP best clusters: " + sums[1] / n);
+		System.out.println("Documents scored per query: " + sums[2] / n + " all, " + sums[3] / n + " clusters, of " + ose.normalizedDocs.size());
+	}
+	
+	/**
+	 * Ranks every query both from the impact ordered postings and by scoring
+	 * every posting, and prints the queries whose top k differ and how many
+	 * postings each way scored.
+	 */
+	public static void compareImpactOrdered(OurSearchEngine ose, String docDir, String indexDir,
+	           String queryFile, int numResults, char[] weights) {
 		char q0 = weights[3];
 		char q1 = weights[4];
 		char q2 = weights[5];
+		System.out.println(new String(weights, 0, 3) + "." + new String(weights, 3, 3));
+		
+		ose.loadIndex(indexDir, docDir);
+		Map<Integer, String> queries = EvaluateQueries.loadQueries(queryFile);
+		ose.setNormalizedDocs(ose.documentVectors(indexDir, weights[0], weights[1], weights[2]));
+		boolean impactOrdered = ose.impactOrdered;
+		ose.setImpactOrdered(true);
+		ImpactIndex impacts = ose.impacts();
+		ose.setImpactOrdered(impactOrdered);
+		
+		long postings = 0;
+		int differ = 0;
+		for (Integer i : queries.keySet()) {
+			HashMap<String,Integer> tokens = ose.tokenize(new StringReader(queries.get(i)));
+			HashMap<String,Double> vector = ose.queryVector(tokens, q0, q1, q2);
+			if (vector == null) {
+				continue;
+			}
+			ArrayList<String> ordered = impacts.top(vector, numResults);
+			ArrayList<String> exhaustive = getResults(ose.getRanks(queries.get(i), q0, q1, q2), numResults);
+			if (!ordered.equals(exhaustive)) {
+				System.out.println("Query " + i + " differs:\n  impact     " + ordered + "\n  exhaustive " + exhaustive);
+				differ++;
+			}
+			for (String t : vector.keySet()) {
+				postings += impacts.docFreq(t);
+			}
+		}
+		System.out.println(differ + " of " + queries.size() + " queries differ, postings scored "
+				+ impacts.getPostingsScored() + " of " + postings);
+	}
+	
+	public static void problem2(final OurSearchEngine ose, String docDir, String indexDir,
+	           String queryFile, String answerFile, final int numResults, char[] weights, final int K, final boolean highest, final boolean print) {
+		ClusterReranker reranker = new ClusterReranker(HierarchicalClusterer.COMPLETE,
+				highest ? ClusterReranker.MAX : ClusterReranker.MEAN, 30, K);
+		problem2(ose, docDir, indexDir, queryFile, answerFile, numResults, weights, reranker, print);
+	}
+	
+	public static void problem2(final OurSearchEngine ose, String docDir, String indexDir,
+	           String queryFile, String answerFile, final int numResults, char[] weights, final ClusterReranker reranker, final boolean print) {
+		//get weights
+		char d0 = weights[0];
+		char d1 = weights[1];
+		char d2 = weights[2];
+		final char q0 = weights[3];
+		final char q1 = weights[4];
+		final char q2 = weights[5];
 		
 		System.out.println("" + d0 + d1  + d2 + "." + q0 + q1 + q2);
-		System.out.println("K: " + K);
-		if (highest) {
+		System.out.println("K: " + reranker.getK());
+		if (reranker.getAggregation() == ClusterReranker.MAX) {
 			System.out.println("Highest");
 		}
 		else {
 			System.out.println("Average");
 		}
+		if (reranker.getLinkage() == HierarchicalClusterer.SINGLE) {
+			System.out.println("Single link");
+		}
+		else if (reranker.getLinkage() == HierarchicalClusterer.AVERAGE) {
+			System.out.println("Average link");
+		}
 		
 		//Load index
 		ose.loadIndex(indexDir, docDir);
@@ -514,15 +873,10 @@ public class OurSearchEngine {
 		// load queries and answer
 		System.out.println("Loading queries and answers...");
 		Map<Integer, String> queries = EvaluateQueries.loadQueries(queryFile);
-		Map<Integer, HashSet<String>> queryAnswers = EvaluateQueries.loadAnswers(answerFile);
+		final Map<Integer, HashSet<String>> queryAnswers = EvaluateQueries.loadAnswers(answerFile);
 		
-		//calculating tfidf for documents
-		System.out.println("Calculating tfidf for documents...");
-		HashMap<String,HashMap<String,Double>> docVector = ose.getDocVector(d0, d1);
-		
-		//normalize the documents
-		System.out.println("Normalize documents...");
-		ose.normalizedDocs = ose.normalizeIndex(d2, docVector);
+		//weighted and normalized documents, mapped from the index directory after the first run
+		ose.setNormalizedDocs(ose.documentVectors(indexDir, d0, d1, d2));
 		
 		// Search and evaluate
 		System.out.println("Evaluating...");
@@ -531,57 +885,69 @@ public class OurSearchEngine {
 		int better = 0;
 		int worse = 0;
 		
-		for (Integer i : queries.keySet()) {
-			LinkedList<String> oldResults = ose.getResults(queries.get(i), q0, q1,q2, numResults);
-			HashMap<String, Double> ranks = ose.getRanks(queries.get(i), q0, q1, q2);
-			
-			//cluster
-			LinkedList<Cluster> clusters = ose.completeLinkCluster(oldResults.subList(0, 30), K);
-			
-			//update ranks
-			HashMap<String, Double> clusterRanks = new HashMap<String, Double>();
-			for (Cluster c: clusters) {
-				LinkedList<String> docs = c.getDocs();
-				double count = 0.0;
-				for (String d: docs) {
-					double r = ranks.get(d).doubleValue();
-					//largest
-					if (highest && r > count) {
-						count = r;
-					}
-					
-					//average
-					if (!highest) {
-						count += r;
-					}
-				}
+		LinkedHashMap<Integer, QueryResult> evaluated = ose.runQueries(queries, new QueryRunner.Task<QueryResult>() {
+			@Override
+			public QueryResult run(Integer i, String query) {
+				QueryResult result = new QueryResult();
+				PrintWriter out = result.out;
+				//one scoring of the query for both the ranks and the results
+				QueryCache.Entry entry = ose.rank(query, q0, q1, q2);
+				HashMap<String, Double> ranks = entry.getRanks();
+				ArrayList<String> oldResults = ose.getResults(entry, numResults);
 				
-				//if average
-				if (!highest) {
-					count = count / docs.size();
-				}
+				//cluster the top results and rank them by cluster
+				LinkedList<Cluster> clusters = reranker.cluster(ose, oldResults);
+				ArrayList<String> newResults = reranker.rerank(ranks, clusters, numResults);
 				
-				//update
-				for (String d: docs) {
-					clusterRanks.put(d, new Double(count));
-				}
-			}
-			
-			//prioritize
-			Document[] docs = new Document[ranks.size()];
-			int j = 0;
-			for (String doc : ranks.keySet()) {
-				Document d = new Document(doc,ranks.get(doc).doubleValue());
-				if (clusterRanks.containsKey(doc)) {
-					d.setClusterRank(clusterRanks.get(doc).doubleValue());
+				double apOld = EvaluateQueries.averagePrecision(queryAnswers.get(i), oldResults);
+				double apNew = EvaluateQueries.averagePrecision(queryAnswers.get(i), newResults);
+				result.apOld = apOld;
+				result.apNew = apNew;
+				
+				if (print) {
+					if ((apNew - apOld) > .1){
+						out.println(query);
+						out.println(apNew - apOld);
+						out.println("Old Ranks");
+						int k = 0;
+						for (String r: oldResults) {
+							out.print(r + " ");
+							k++;
+							if (k == 30) {
+								break;
+							}
+						}
+						out.println("");
+						
+						out.println("\nClusters");
+						for (Cluster c: clusters) {
+							for (String doc: c.getDocs()) {
+								out.print(doc + " ");
+							}
+							out.println(reranker.score(c, ranks));
+						}
+						
+						out.println("\nNew Ranks");
+						k = 0;
+						for (String r: newResults) {
+							out.print(r + " ");
+							k++;
+							if (k == 30) {
+								break;
+							}
+						}
+						out.println("");
+					}
 				}
-				docs[j] = d;
-				j++;
+				return result;
 			}
-			
-			LinkedList<String> newResults = priority(docs, numResults);
-			double apOld = EvaluateQueries.averagePrecision(queryAnswers.get(i), oldResults);
-			double apNew = EvaluateQueries.averagePrecision(queryAnswers.get(i), newResults);
+		});
+		
+		//add up in query order, so the totals and output match a sequential run
+		for (Integer i : evaluated.keySet()) {
+			QueryResult result = evaluated.get(i);
+			double apOld = result.apOld;
+			double apNew = result.apNew;
 			
 			if (apOld < apNew) {
 				better++;
@@ -592,62 +958,7 @@ public class OurSearchEngine {
 			
 			averageSumOld += apOld;
 			averageSumNew += apNew;
-			
-			if (print) {
-				if ((apNew - apOld) > .1){
-					System.out.println(queries.get(i));
-					System.out.println(apNew - apOld);
-					System.out.println("Old Ranks");
-					int k = 0;
-					for (String r: oldResults) {
-						System.out.print(r + " ");
-						k++;
-						if (k == 30) {
-							break;
-						}
-					}
-					System.out.println("");
-					
-					System.out.println("\nClusters");
-					for (Cluster c: clusters) {
-						LinkedList<String> documents = c.getDocs();
-						double count = 0.0;
-						for (String doc: documents) {
-							System.out.print(doc + " ");
-							
-							double r = ranks.get(doc).doubleValue();
-							//largest
-							if (highest && r > count) {
-								count = r;
-							}
-							
-							//average
-							if (!highest) {
-								count += r;
-							}
-						}
-						
-						//if average
-						if (!highest) {
-							count = count / documents.size();
-						}
-						
-						System.out.println(count);
-					}
-					
-					System.out.println("\nNew Ranks");
-					k = 0;
-					for (String r: newResults) {
-						System.out.print(r + " ");
-						k++;
-						if (k == 30) {
-							break;
-						}
-					}
-					System.out.println("");
-				}
-			}
-				
+			System.out.print(result.text());
 		}
 		
 		System.out.printf("Old MAP: %f\n", averageSumOld / queries.size());
@@ -656,33 +967,6 @@ public class OurSearchEngine {
 		System.out.printf("Worse: %d\n\n", worse);
 	}
 	
-	public static HashMap<String, Double> qprime(OurSearchEngine ose, LinkedList<String> rel, HashMap<String, Double> qj, double A, double B, double C){
-		HashMap<String, Double> qPrime= new HashMap<String, Double>();
-		for(String t: qj.keySet()){
-			double dRel=0;
-			for(String doc: rel){
-				if(ose.normalizedDocs.get(doc).containsKey(t)){
-					dRel+= ose.normalizedDocs.get(doc).get(t);
-				}
-			}
-			/*double dNrel=0;
-			for(String doc: ose.normalizedDocs.keySet()){
-				if(rel.contains(doc)==false){
-					if(ose.normalizedDocs.get(doc).containsKey(t)){
-							dNrel+= ose.normalizedDocs.get(doc).get(t);
-						}
-					else{
-						dNrel+=0.5*ose.idf(t,'t');
-					}
-				}
-			}*/
-			double qjPrime= 
-			A*qj.get(t)+B*(1.0/(double)rel.size())*dRel; //-C*(1.0/(double)(ose.normalizedDocs.size()-rel.size()))*dNrel;
-			qPrime.put(t, new Double(qjPrime));
-		}
-		return qPrime;
-	}
-	
 	//gets query every token of a query and its tf-idf weight
 	HashMap<String, Double> getRanksQuery(String query, char q0, char q1, char q2) {
 		//stemming and stopping
@@ -691,8 +975,9 @@ public class OurSearchEngine {
 				
 				//calculate query vector
 				HashMap<String, Double> queryVector = new HashMap<String,Double>();
+				DocStats qstats = new DocStats(tokens);
 				for (String t : tokens.keySet()) {
-					double qtf = tf(t, tokens, q0);
+					double qtf = tf(t, tokens, qstats, q0);
 					double qidf = idf(t, q1);
 					queryVector.put(t, new Double(qtf*qidf));
 				}
@@ -701,17 +986,17 @@ public class OurSearchEngine {
 				return normalize(q2, queryVector);
 	}
 	
-	public static void rocchio(OurSearchEngine ose, String docDir, String indexDir,
-	           String queryFile, String answerFile, int numResults, char[] weights, int K, double A, double B, double C ){
+	public static void rocchio(final OurSearchEngine ose, String docDir, final String indexDir,
+	           String queryFile, String answerFile, final int numResults, char[] weights, final int K, final double A, final double B, final double C ){
 		double max=0;
 		Integer query= new Integer(0);
 		//get weights
 		char d0 = weights[0];
 		char d1 = weights[1];
 		char d2 = weights[2];
-		char q0 = weights[3];
-		char q1 = weights[4];
-		char q2 = weights[5];
+		final char q0 = weights[3];
+		final char q1 = weights[4];
+		final char q2 = weights[5];
 		
 		
 		System.out.println("" + d0 + d1  + d2 + "." + q0 + q1 + q2);
@@ -722,102 +1007,62 @@ public class OurSearchEngine {
 		// load queries and answer
 		System.out.println("Loading queries and answers...");
 		Map<Integer, String> queries = EvaluateQueries.loadQueries(queryFile);
-		Map<Integer, HashSet<String>> queryAnswers = EvaluateQueries.loadAnswers(answerFile);
-		
-		//calculating tfidf for documents
-		System.out.println("Calculating tfidf for documents...");
-		HashMap<String,HashMap<String,Double>> docVector = ose.getDocVector(d0, d1);
+		final Map<Integer, HashSet<String>> queryAnswers = EvaluateQueries.loadAnswers(answerFile);
 		
-		//normalize the documents
-		System.out.println("Normalize documents...");
-		ose.normalizedDocs = ose.normalizeIndex(d2, docVector);
+		//weighted and normalized documents, mapped from the index directory after the first run
+		ose.setNormalizedDocs(ose.documentVectors(indexDir, d0, d1, d2));
 		
 		System.out.println("Evaluating...");
 		double averageSumOld = 0.0;
 		double averageSumNew = 0.0;
 		int better = 0;
 		int worse = 0;
-		for (Integer i : queries.keySet()) {
-			int bigK=K;
-			LinkedList<String> prevR = ose.getResults(queries.get(i), q0, q1,q2, 100);
-			LinkedList<String> results = ose.getResults(queries.get(i), q0, q1,q2, numResults);
-			HashMap<String, Double> ranks = ose.getRanksQuery(queries.get(i), q0, q1, q2);
-			HashMap<String, Double> orig=ose.getRanksQuery(queries.get(i), q0, q1, q2);;
-			HashMap<String, Double> newQuer= new HashMap<String, Double>(); //will contain each query token and its query idf-tf
-			//gets each term in the corpus
-			for(String s: results){
-				for(String t: ose.index.get(s).keySet()){
-					if(newQuer.containsKey(t)==false){
-						newQuer.put(t, new Double(0));
-					}
-				}
-			}
-			//takes query tf-idf and assigns to the tokens that also occur in the rel docs
-			for(String t: ranks.keySet()){
-					newQuer.put(t, ranks.get(t));
-			}
-			//call outside method for q'j for each token
-			HashMap<String, Double>qPrime= qprime(ose, results, newQuer, A, B, C);
-			
-			Document[] arr = new Document[qPrime.size()];
-			int count=0;
-			
-			for(String t: qPrime.keySet()){
-				Document d = new Document(t, qPrime.get(t));
-				arr[count]=d;
-				count++;
-			}
-			LinkedList<String> top= priority(arr, arr.length);
-			for(String t: ranks.keySet()){
-				ranks.put(t, qPrime.get(t));
-			}
-			
-			for(String t: top){
-				if(ranks.containsKey(t)==false){
-					ranks.put(t, qPrime.get(t));
-					bigK--;
-					if(bigK==0){
-						break;
+		LinkedHashMap<Integer, QueryResult> evaluated = ose.runQueries(queries, new QueryRunner.Task<QueryResult>() {
+			@Override
+			public QueryResult run(Integer i, String query) {
+				QueryResult result = new QueryResult();
+				PrintWriter out = result.out;
+				//score the query once and keep its accumulators for the feedback round
+				HashMap<String, Double> orig=ose.getRanksQuery(query, q0, q1, q2);
+				ScoreAccumulator original = ose.inverted.accumulate(orig);
+				HashMap<String, Double> origRanks = original.getRanks();
+				ArrayList<String> prevR = getResults(origRanks, 100);
+				ArrayList<String> results = getResults(origRanks, numResults);
+				
+				//pseudo relevance feedback on the top results, the K best new terms are added,
+				//with C every other document is non-relevant
+				RocchioFeedback feedback = new RocchioFeedback(ose.inverted, ose.centroids);
+				HashMap<String, Double> ranks = feedback.expandAgainstCollection(orig, results, A, B, C, K);
+				
+				//get scores for all documents with expanded query, only terms the feedback changes are added
+				ArrayList<String> top2= getResults(feedback.rescore(original, orig, ranks, A).getRanks(), 100);
+				double apOld = EvaluateQueries.averagePrecision(queryAnswers.get(i), prevR);
+				double apNew = EvaluateQueries.averagePrecision(queryAnswers.get(i), top2);
+				result.apOld = apOld;
+				result.apNew = apNew;
+				
+				if(i.equals(Integer.valueOf(30)) && indexDir.equals("data/index/med2")){
+					out.println("Original Query:");
+					for(String a: orig.keySet()){
+						out.print(" " + a + ":" + orig.get(a) + " ");
 					}
-				}
-			}
-			
-			
-			//scores
-			HashMap<String, Double> order = new HashMap<String, Double>();
-			
-			//get scores for all documents with expanded query
-			for (String t : ranks.keySet()) {
-				Double qScore = ranks.get(t);
-				if (qScore != null) {
-					for (String d : ose.normalizedDocs.keySet()) {
-						HashMap<String,Double> scores = ose.normalizedDocs.get(d);
-						if (!order.containsKey(d)) {
-							order.put(d, new Double(0));
-						}
-								
-						Double s = scores.get(t);
-						if (s != null) {
-							Double r = order.get(d);
-							double r2 = 0;
-							if (r != null) {
-								r2 = r.doubleValue();
-							}
-							order.put(d, new Double(r2 + s.doubleValue()*qScore.doubleValue()));
-						}
+					out.println();
+					out.println("Expanded Query:");
+					for(String a: ranks.keySet()){
+						out.print(" " + a + ":" + ranks.get(a) + " ");
 					}
+					out.println();
+					out.println("Old:" + apOld + " " + "New: " +  apNew);
 				}
+				return result;
 			}
-			Document[] arr2 = new Document[order.size()];
-			count=0;
-			for(String t: order.keySet()){
-				Document d = new Document(t, order.get(t));
-				arr2[count]=d;
-				count++;
-			}
-			LinkedList<String> top2= priority(arr2, 100);
-			double apOld = EvaluateQueries.averagePrecision(queryAnswers.get(i), prevR);
-			double apNew = EvaluateQueries.averagePrecision(queryAnswers.get(i), top2);
+		});
+		
+		//add up in query order, so the totals and output match a sequential run
+		for (Integer i : evaluated.keySet()) {
+			QueryResult result = evaluated.get(i);
+			double apOld = result.apOld;
+			double apNew = result.apNew;
 			
 			if (apOld < apNew) {
 				better++;
@@ -831,19 +1076,7 @@ public class OurSearchEngine {
 			
 			averageSumOld += apOld;
 			averageSumNew += apNew;
-			if(i.equals(new Integer(30)) && indexDir.equals("data/index/med2")){
-				System.out.println("Original Query:");
-				for(String a: orig.keySet()){
-					System.out.print(" " + a + ":" + orig.get(a) + " ");
-				}
-				System.out.println();
-				System.out.println("Expanded Query:");
-				for(String a: ranks.keySet()){
-					System.out.print(" " + a + ":" + ranks.get(a) + " ");
-				}
-				System.out.println();
-				System.out.println("Old:" + apOld + " " + "New: " +  apNew);
-			}
+			System.out.print(result.text());
 		}
 		
 		System.out.println();
@@ -855,52 +1088,25 @@ public class OurSearchEngine {
 		
 	}
 	
-	public static HashMap<String, Double> qprime2(OurSearchEngine ose, String rel, String nRel, HashMap<String, Double> qj, double A, double B, double C){
-		HashMap<String, Double> qPrime= new HashMap<String, Double>();
-		double rl=1.0;
-		double nl=1.0;
-		for(String t: qj.keySet()){
-			double dRel=0;
-			if(!rel.equals("")){
-				if(ose.normalizedDocs.get(rel).containsKey(t)){
-					dRel+= ose.normalizedDocs.get(rel).get(t);
-				}
-			}
-			double dNrel=0;
-			if(!nRel.equals("")){
-				if(ose.normalizedDocs.get(nRel).containsKey(t)){
-					dNrel+= ose.normalizedDocs.get(nRel).get(t);
-				}
-			}
-			if(rel.equals("")){
-				rl=0.0;
-			}
-			if(nRel.equals("")){
-				nl=0.0;
-			}
-			double qjPrime=0.0;
-			if(C!=0){
-				qjPrime= A*qj.get(t)+B*(rl)*dRel-C*(nl)*dNrel;
-			}
-			else{
-				qjPrime= A*qj.get(t)+B*(rl)*dRel;
-			}
-			qPrime.put(t, new Double(qjPrime));
-		}
-		return qPrime;
+	/**
+	 * An interactive feedback session on the query: judge documents with
+	 * markRelevant and markNonRelevant, then call feedback for each round.
+	 */
+	public FeedbackSession startFeedback(String query, char q0, char q1, char q2, double A, double B, double C, int K) {
+		return new FeedbackSession(inverted, centroids, getRanksQuery(query, q0, q1, q2), A, B, C, K);
 	}
 	
-	public static void rocchio2(OurSearchEngine ose, String docDir, String indexDir,
-	           String queryFile, String answerFile, int numResults, char[] weights, int K, double A, double B, double C ){
+	public static void rocchio2(final OurSearchEngine ose, String docDir, final String indexDir,
+	           String queryFile, String answerFile, final int numResults, char[] weights, final int K, final double A, final double B, final double C ){
 		double max=0;
 		Integer query= new Integer(0);
 		//get weights
 		char d0 = weights[0];
 		char d1 = weights[1];
 		char d2 = weights[2];
-		char q0 = weights[3];
-		char q1 = weights[4];
-		char q2 = weights[5];
+		final char q0 = weights[3];
+		final char q1 = weights[4];
+		final char q2 = weights[5];
 		
 		
 		System.out.println("" + d0 + d1  + d2 + "." + q0 + q1 + q2);
@@ -911,16 +1117,11 @@ public class OurSearchEngine {
 		// load queries and answer
 		System.out.println("Loading queries and answers...");
 		Map<Integer, String> queries = EvaluateQueries.loadQueries(queryFile);
-		Map<Integer, HashSet<String>> queryAnswers = EvaluateQueries.loadAnswers(answerFile);
+		final Map<Integer, HashSet<String>> queryAnswers = EvaluateQueries.loadAnswers(answerFile);
 		
-		//calculating tfidf for documents
-		System.out.println("Calculating tfidf for documents...");
-		HashMap<String,HashMap<String,Double>> docVector = ose.getDocVector(d0, d1);
-		
-		//normalize the documents
-		System.out.println("Normalize documents...");
-		ose.normalizedDocs = ose.normalizeIndex(d2, docVector);
-		HashMap<Integer, ArrayList<String>> relDocs= new HashMap<Integer, ArrayList<String>>();
+		//weighted and normalized documents, mapped from the index directory after the first run
+		ose.setNormalizedDocs(ose.documentVectors(indexDir, d0, d1, d2));
+		final HashMap<Integer, ArrayList<String>> relDocs= new HashMap<Integer, ArrayList<String>>();
 		try {
 			BufferedReader swr = new BufferedReader(new FileReader(answerFile));
 			String line = null;
@@ -940,106 +1141,70 @@ public class OurSearchEngine {
 		double averageSumNew = 0.0;
 		int better = 0;
 		int worse = 0;
-		for (Integer i : queries.keySet()) {
-			int bigK=K;
-			LinkedList<String> prevR = ose.getResults(queries.get(i), q0, q1,q2, 100);
-			LinkedList<String> results = ose.getResults(queries.get(i), q0, q1,q2, numResults);
-			String topRel="";
-			String topNrel="";
-			for(String st: results){
-				if(relDocs.get(i).contains(st)){
-					topRel=st;
-					break;
-				}
-			}
-			for(String st: results){
-				if(relDocs.get(i).contains(st)==false){
-					topNrel=st;
-					break;
-				}
-			}
-			HashMap<String, Double> ranks = ose.getRanksQuery(queries.get(i), q0, q1, q2);
-			HashMap<String, Double> orig=ose.getRanksQuery(queries.get(i), q0, q1, q2);
-			HashMap<String, Double> newQuer= new HashMap<String, Double>(); //will contain each query token and its query idf-tf
-			//gets each term in the corpus
-			if(!topRel.equals("")){
-				for(String t: ose.index.get(topRel).keySet()){
-					if(newQuer.containsKey(t)==false){
-						newQuer.put(t, new Double(0));
-					}
-				}
-			}
-			
-			if(C!=0){
-				if(!topNrel.equals("")){
-					for(String t: ose.index.get(topNrel).keySet()){
-						if(newQuer.containsKey(t)==false){
-							newQuer.put(t, new Double(0));
-						}
+		LinkedHashMap<Integer, QueryResult> evaluated = ose.runQueries(queries, new QueryRunner.Task<QueryResult>() {
+			@Override
+			public QueryResult run(Integer i, String query) {
+				QueryResult result = new QueryResult();
+				PrintWriter out = result.out;
+				//one feedback session per query, the query is analyzed and scored once
+				FeedbackSession session = ose.startFeedback(query, q0, q1, q2, A, B, C, K);
+				ArrayList<String> prevR = session.getResults(100);
+				ArrayList<String> results = session.getResults(numResults);
+				String topRel="";
+				String topNrel="";
+				for(String st: results){
+					if(relDocs.get(i).contains(st)){
+						topRel=st;
+						break;
 					}
 				}
-			}
-			//takes query tf-idf and assigns to the words in corpus that are in the query
-			for(String t: ranks.keySet()){
-					newQuer.put(t, ranks.get(t));
-			}
-			//call outside method for q'j for each token
-			HashMap<String, Double>qPrime= qprime2(ose, topRel, topNrel, newQuer, A, B, C);
-			Document[] arr = new Document[qPrime.size()];
-			int count=0;
-			for(String t: qPrime.keySet()){
-				Document d = new Document(t, qPrime.get(t));
-				arr[count]=d;
-				count++;
-			}
-			LinkedList<String> top= priority(arr, arr.length);
-			for(String t: ranks.keySet()){
-				ranks.put(t, qPrime.get(t));
-			}
-			for(String t: top){
-				if(ranks.containsKey(t)==false){
-					ranks.put(t, qPrime.get(t));
-					bigK--;
-					if(bigK==0){
+				for(String st: results){
+					if(relDocs.get(i).contains(st)==false){
+						topNrel=st;
 						break;
 					}
 				}
-			}
-			//scores
-			HashMap<String, Double> order = new HashMap<String, Double>();
-			
-			//get scores for all documents with expanded query
-			for (String t : ranks.keySet()) {
-				Double qScore = ranks.get(t);
-				if (qScore != null) {
-					for (String d : ose.normalizedDocs.keySet()) {
-						HashMap<String,Double> scores = ose.normalizedDocs.get(d);
-						if (!order.containsKey(d)) {
-							order.put(d, new Double(0));
-						}
-								
-						Double s = scores.get(t);
-						if (s != null) {
-							Double r = order.get(d);
-							double r2 = 0;
-							if (r != null) {
-								r2 = r.doubleValue();
-							}
-							order.put(d, new Double(r2 + s.doubleValue()*qScore.doubleValue()));
-						}
+				//feedback from the first relevant and, if C is used, the first non-relevant result
+				if(!topRel.equals("")){
+					session.markRelevant(topRel);
+				}
+				if(C!=0 && !topNrel.equals("")){
+					session.markNonRelevant(topNrel);
+				}
+				session.feedback();
+				HashMap<String, Double> orig = session.getOriginalQuery();
+				HashMap<String, Double> ranks = session.getQuery();
+				
+				//get scores for all documents with expanded query
+				ArrayList<String> top2= session.getResults(100);
+				double apOld = EvaluateQueries.averagePrecision(queryAnswers.get(i), prevR);
+				double apNew = EvaluateQueries.averagePrecision(queryAnswers.get(i), top2);
+				result.apOld = apOld;
+				result.apNew = apNew;
+				
+				if(i.equals(Integer.valueOf(48)) && indexDir.equals("data/index/cacm2")){
+					out.println("Original Query:");
+					for(String a: orig.keySet()){
+						out.print(" " + a + ":" + orig.get(a) + " ");
 					}
+					out.println();
+					out.println("Expanded Query:");
+					for(String a: ranks.keySet()){
+						out.print(" " + a + ":" + ranks.get(a) + " ");
+					}
+					
+					out.println();
+					out.println("Old:" + apOld + " " + "New: " +  apNew);
 				}
+				return result;
 			}
-			Document[] arr2 = new Document[order.size()];
-			count=0;
-			for(String t: order.keySet()){
-				Document d = new Document(t, order.get(t));
-				arr2[count]=d;
-				count++;
-			}
-			LinkedList<String> top2= priority(arr2, 100);
-			double apOld = EvaluateQueries.averagePrecision(queryAnswers.get(i), prevR);
-			double apNew = EvaluateQueries.averagePrecision(queryAnswers.get(i), top2);
+		});
+		
+		//add up in query order, so the totals and output match a sequential run
+		for (Integer i : evaluated.keySet()) {
+			QueryResult result = evaluated.get(i);
+			double apOld = result.apOld;
+			double apNew = result.apNew;
 			
 			if (apOld < apNew) {
 				better++;
@@ -1053,21 +1218,7 @@ public class OurSearchEngine {
 			}
 			averageSumOld += apOld;
 			averageSumNew += apNew;
-			
-			if(i.equals(new Integer(48)) && indexDir.equals("data/index/cacm2")){
-				System.out.println("Original Query:");
-				for(String a: orig.keySet()){
-					System.out.print(" " + a + ":" + orig.get(a) + " ");
-				}
-				System.out.println();
-				System.out.println("Expanded Query:");
-				for(String a: ranks.keySet()){
-					System.out.print(" " + a + ":" + ranks.get(a) + " ");
-				}
-				
-				System.out.println();
-				System.out.println("Old:" + apOld + " " + "New: " +  apNew);
-			}
+			System.out.print(result.text());
 		}
 		System.out.println();
 		System.out.printf("Old MAP: %f\n", averageSumOld / queries.size());
@@ -1097,6 +1248,15 @@ public class OurSearchEngine {
 		
 		int numResults = 100;
 		
+		//-compare ranks with and without the impact ordered postings and prints the differences instead
+		if (arg.length > 0 && arg[0].equals("-compare")) {
+			System.out.println("CACM");
+			compareImpactOrdered(ose, cacmDocsDir, cacmIndexDir, cacmQueries, numResults, weights);
+			System.out.println("MED");
+			compareImpactOrdered(ose, medDocsDir, medIndexDir, medQueries, numResults, weights);
+			return;
+		}
+		
 		System.out.println("PROBLEM 1");
 		System.out.println("PART A");
 		System.out.println("CACM");
@@ -1110,6 +1270,13 @@ public class OurSearchEngine {
 		System.out.println("MED");
 		rocchio(ose, medDocsDir, medIndexDir, medQueries, medAnswers, 7, weights, 10, 4, 16, 0);
 		
+		//full Rocchio, every document outside the top 7 is non-relevant
+		System.out.println("PART C");
+		System.out.println("CACM");
+		rocchio(ose, cacmDocsDir, cacmIndexDir, cacmQueries, cacmAnswers, 7, weights, 5, 4, 8, 4);
+		System.out.println("MED");
+		rocchio(ose, medDocsDir, medIndexDir, medQueries, medAnswers, 7, weights, 5, 4, 8, 4);
+		
 		System.out.println("PROBLEM 2");
 		System.out.println("CACM");
 		problem2(ose, cacmDocsDir, cacmIndexDir, cacmQueries, cacmAnswers, numResults, weights, 20, true, false);
@@ -1132,6 +1299,12 @@ public class OurSearchEngine {
 		System.out.println("MED");
 		rocchio2(ose, medDocsDir, medIndexDir, medQueries, medAnswers, 7, weights, 5, 4, 16, 0);
 		
+		System.out.println("CLUSTER RETRIEVAL");
+		System.out.println("CACM");
+		clusterRetrieval(ose, cacmDocsDir, cacmIndexDir, cacmQueries, cacmAnswers, numResults, weights, 60, 5);
+		System.out.println("MED");
+		clusterRetrieval(ose, medDocsDir, medIndexDir, medQueries, medAnswers, numResults, weights, 60, 5);
+		
 		System.out.println("done");
 ;	}
 }
@@ -0,0 +1,119 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.analysis.util.CharArraySet;
+
+/** Tokenizes documents on several threads.  The files are split into one
+ * contiguous block per thread, every thread counts its block with its own
+ * MyAnalyzer, and the partial results are put back together in file order,
+ * so callers see exactly what a single thread would have produced.
+ */
+public class ParallelIndexer {
+
+	private CharArraySet stopwords;
+	private int threads;
+
+	public ParallelIndexer(CharArraySet stopwords, int threads) {
+		this.stopwords = stopwords;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Lists the readable .txt files under the given file, in the same order
+	 * the recursive indexDocs visits them.
+	 */
+	public static void listFiles(File file, List<File> files) {
+		if (file.canRead()) {
+			if (file.isDirectory()) {
+				String[] names = file.list();
+				if (names != null) {
+					for (int i = 0; i < names.length; i++) {
+						listFiles(new File(file, names[i]), files);
+					}
+				}
+			} else if (file.getName().endsWith(".txt")) {
+				files.add(file);
+			}
+		}
+	}
+
+	//CACM-0001.txt -> CACM-0001
+	public static String docName(File file) {
+		String doc = file.getName();
+		return doc.substring(0, doc.length()-".txt".length());
+	}
+
+	private static HashMap<String,Integer> tokenize(MyAnalyzer analyzer, File file) {
+		//the tokenizer buffers its input itself, no BufferedReader needed
+		try (InputStreamReader reader = new InputStreamReader(new FileInputStream(file))) {
+			return analyzer.countTerms(reader);
+		} catch (IOException e) {
+			System.out.println(" caught a " + e.getClass() + "\n with message: " + e.getMessage());
+		}
+		return new HashMap<String,Integer>();
+	}
+
+	/**
+	 * Term counts of every file, in the order of the list.
+	 */
+	public ArrayList<HashMap<String,Integer>> tokenize(final List<File> files) {
+		ArrayList<HashMap<String,Integer>> results = new ArrayList<HashMap<String,Integer>>(files.size());
+
+		int workers = Math.min(threads, files.size());
+		if (workers <= 1) {
+			MyAnalyzer analyzer = new MyAnalyzer(stopwords);
+			for (File f : files) {
+				results.add(tokenize(analyzer, f));
+			}
+			analyzer.close();
+			return results;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		ArrayList<Future<ArrayList<HashMap<String,Integer>>>> parts = new ArrayList<Future<ArrayList<HashMap<String,Integer>>>>();
+		int block = (files.size() + workers - 1) / workers;
+		for (int w = 0; w < workers; w++) {
+			final int from = Math.min(files.size(), w * block);
+			final int to = Math.min(files.size(), from + block);
+			parts.add(pool.submit(new Callable<ArrayList<HashMap<String,Integer>>>() {
+				@Override
+				public ArrayList<HashMap<String,Integer>> call() {
+					//one analyzer per thread, its token streams are not shared
+					MyAnalyzer analyzer = new MyAnalyzer(stopwords);
+					ArrayList<HashMap<String,Integer>> part = new ArrayList<HashMap<String,Integer>>(to - from);
+					for (int i = from; i < to; i++) {
+						part.add(tokenize(analyzer, files.get(i)));
+					}
+					analyzer.close();
+					return part;
+				}
+			}));
+		}
+
+		//merge the partial results in block order
+		try {
+			for (Future<ArrayList<HashMap<String,Integer>>> part : parts) {
+				results.addAll(part.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+
+		return results;
+	}
+}
@@ -0,0 +1,125 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/** Streams the (document id, frequency) pairs of one term out of the
+ * inverted postings file without creating any objects per posting.
+ *
+ * RAW stores every pair as two ints.  VBYTE stores the gap to the previous
+ * document id and the frequency as variable-byte integers, 7 bits per byte
+ * with the high bit set on every byte but the last.  NONE writes no inverted
+ * postings file at all.
+ */
+public class PostingsReader {
+
+	public static final int NONE = -1;
+	public static final int RAW = 0;
+	public static final int VBYTE = 1;
+	public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+	private ByteBuffer buffer;
+	private int encoding;
+	private int position;
+	private int remaining;
+	private int size;
+	private int doc;
+	private int freq;
+
+	public PostingsReader(ByteBuffer buffer, int start, int count, int encoding) {
+		this.buffer = buffer;
+		this.encoding = encoding;
+		this.position = start;
+		this.remaining = count;
+		this.size = count;
+		this.doc = -1;
+		this.freq = 0;
+	}
+
+	public static String name(int encoding) {
+		switch(encoding) {
+			case NONE:
+				return "none";
+			case RAW:
+				return "raw";
+			case VBYTE:
+				return "vbyte";
+		}
+		return "unknown";
+	}
+
+	//number of documents in the list
+	public int size() {
+		return size;
+	}
+
+	public int doc() {
+		return doc;
+	}
+
+	public int freq() {
+		return freq;
+	}
+
+	public int nextDoc() {
+		if (remaining == 0) {
+			doc = NO_MORE_DOCS;
+			return doc;
+		}
+		remaining--;
+
+		if (encoding == VBYTE) {
+			int gap = readVByte();
+			doc = (doc < 0) ? gap : doc + gap;
+			freq = readVByte();
+		}
+		else {
+			doc = buffer.getInt(position);
+			freq = buffer.getInt(position + 4);
+			position += 8;
+		}
+		return doc;
+	}
+
+	private int readVByte() {
+		int value = 0;
+		int shift = 0;
+		byte b = buffer.get(position++);
+		while (b < 0) {
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+			b = buffer.get(position++);
+		}
+		return value | (b << shift);
+	}
+
+	//writes one list, documents must be in increasing order; returns the bytes written
+	public static int write(DataOutputStream out, int[] docs, int[] freqs, int count, int encoding) throws IOException {
+		int bytes = 0;
+		int previous = -1;
+		for (int i = 0; i < count; i++) {
+			if (encoding == VBYTE) {
+				int gap = (previous < 0) ? docs[i] : docs[i] - previous;
+				bytes += writeVByte(out, gap);
+				bytes += writeVByte(out, freqs[i]);
+			}
+			else {
+				out.writeInt(docs[i]);
+				out.writeInt(freqs[i]);
+				bytes += 8;
+			}
+			previous = docs[i];
+		}
+		return bytes;
+	}
+
+	private static int writeVByte(DataOutputStream out, int value) throws IOException {
+		int bytes = 1;
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+			bytes++;
+		}
+		out.writeByte(value);
+		return bytes;
+	}
+}
@@ -0,0 +1,128 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Bounded cache of query results, keyed on the analyzed query terms and
+ * the weighting used to score them.  Entries are dropped least recently
+ * used first once the cache is full, and after ttl milliseconds if a ttl
+ * is set.  The engine clears it whenever the index or the document vectors
+ * change.  Safe to use from several query threads.
+ */
+public class QueryCache {
+
+	public static class Entry {
+		private HashMap<String,Double> ranks;
+		private ArrayList<String> top;
+		private int topK;
+		private long created;
+
+		Entry(HashMap<String,Double> ranks, long created) {
+			this.ranks = ranks;
+			this.top = null;
+			this.topK = -1;
+			this.created = created;
+		}
+
+		//score of every document that contains a query term, do not change it
+		public HashMap<String,Double> getRanks() {
+			return ranks;
+		}
+
+		//the best k documents if a list at least that long was stored, otherwise null
+		public synchronized ArrayList<String> getTop(int k) {
+			if (top == null || k > topK) {
+				return null;
+			}
+			return new ArrayList<String>(top.subList(0, Math.min(k, top.size())));
+		}
+
+		//the best k documents are a prefix of the best k+1, keep the longest list
+		public synchronized void setTop(int k, ArrayList<String> results) {
+			if (k > topK) {
+				top = results;
+				topK = k;
+			}
+		}
+	}
+
+	private final int maxSize;
+	private long ttl;
+	private LinkedHashMap<String,Entry> entries;
+	private long hits;
+	private long misses;
+
+	public QueryCache(final int maxSize, long ttl) {
+		this.maxSize = maxSize;
+		this.ttl = ttl;
+		//access order, so the eldest entry is the least recently used
+		this.entries = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * The key of a query: its terms and counts in term order, then the
+	 * weighting, e.g. "atc" for SMART or the BM25 parameters.
+	 */
+	public static String key(HashMap<String,Integer> terms, String weighting) {
+		String[] sorted = terms.keySet().toArray(new String[terms.size()]);
+		Arrays.sort(sorted);
+		StringBuilder key = new StringBuilder();
+		for (String t : sorted) {
+			key.append(t).append(':').append(terms.get(t)).append(' ');
+		}
+		return key.append('|').append(weighting).toString();
+	}
+
+	public synchronized Entry get(String key) {
+		Entry e = entries.get(key);
+		if (e != null && ttl > 0 && System.currentTimeMillis() - e.created > ttl) {
+			entries.remove(key);
+			e = null;
+		}
+		if (e == null) {
+			misses++;
+		}
+		else {
+			hits++;
+		}
+		return e;
+	}
+
+	//stores the ranks of a query and returns its entry
+	public synchronized Entry put(String key, HashMap<String,Double> ranks) {
+		Entry e = new Entry(ranks, System.currentTimeMillis());
+		if (maxSize > 0) {
+			entries.put(key, e);
+		}
+		return e;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	//milliseconds an entry stays valid, 0 for no limit
+	public synchronized void setTTL(long ttl) {
+		this.ttl = ttl;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+}
@@ -0,0 +1,65 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Runs one task per query on a thread pool.  The tasks may only read the
+ * engine, and the results come back in the iteration order of the query map
+ * so anything computed from them is the same as a sequential run.
+ */
+public class QueryRunner {
+
+	public interface Task<T> {
+		T run(Integer id, String query);
+	}
+
+	private int threads;
+
+	public QueryRunner(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	public <T> LinkedHashMap<Integer,T> run(Map<Integer,String> queries, final Task<T> task) {
+		LinkedHashMap<Integer,T> results = new LinkedHashMap<Integer,T>();
+
+		if (threads == 1 || queries.size() <= 1) {
+			for (Integer i : queries.keySet()) {
+				results.put(i, task.run(i, queries.get(i)));
+			}
+			return results;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, queries.size()));
+		ArrayList<Integer> ids = new ArrayList<Integer>();
+		ArrayList<Future<T>> futures = new ArrayList<Future<T>>();
+		for (final Integer i : queries.keySet()) {
+			final String query = queries.get(i);
+			ids.add(i);
+			futures.add(pool.submit(new Callable<T>() {
+				@Override
+				public T call() {
+					return task.run(i, query);
+				}
+			}));
+		}
+
+		try {
+			for (int j = 0; j < ids.size(); j++) {
+				results.put(ids.get(j), futures.get(j).get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+
+		return results;
+	}
+}
@@ -0,0 +1,148 @@
+import java.util.HashMap;
+import java.util.List;
+
+/** Rocchio feedback on a query that has already been scored:
+ *
+ *   q' = A * q + B * mean of the relevant - C * mean of the non-relevant
+ *
+ * The query terms get their new weight, and the K other terms of the
+ * feedback documents with the largest new weight are added, picked with a
+ * heap of K.  The expanded query is scored from the accumulators of the
+ * original query: they are multiplied by A and only the terms the feedback
+ * documents add weight to are read from the postings.
+ */
+public class RocchioFeedback {
+	private InvertedIndex inverted;
+	private DocVectors docs;
+	private Centroids centroids;
+
+	public RocchioFeedback(InvertedIndex inverted) {
+		this(inverted, new Centroids(inverted.getVectors()));
+	}
+
+	//centroids must be of the index's vectors, share it to compute the collection's sum once
+	public RocchioFeedback(InvertedIndex inverted, Centroids centroids) {
+		this.inverted = inverted;
+		this.docs = inverted.getVectors();
+		this.centroids = centroids;
+	}
+
+	/**
+	 * The query terms with their new weights, in the query's order, then the
+	 * K best expansion terms, best first.  A list may be empty to leave out
+	 * its part of the formula.
+	 */
+	public HashMap<String,Double> expand(HashMap<String,Double> query, List<String> relevant, List<String> nonRelevant,
+			double A, double B, double C, int K) {
+		//terms of the feedback documents, in the order they were seen
+		int[] candidates = new int[centroids.numTerms()];
+		boolean[] seen = new boolean[candidates.length];
+		int numCandidates = candidates(relevant, seen, candidates, 0);
+		numCandidates = candidates(nonRelevant, seen, candidates, numCandidates);
+
+		return expand(query, centroids.sum(relevant), relevant.size(), centroids.sum(nonRelevant), nonRelevant.size(),
+				candidates, numCandidates, A, B, C, K);
+	}
+
+	/**
+	 * expand with every document that is not relevant as the non-relevant
+	 * set.  Their sum is the collection's sum minus the relevant documents',
+	 * so it costs one pass over the terms.  The relevant documents must be
+	 * in the collection and in the list once.  Expansion terms come from the
+	 * relevant documents only.
+	 */
+	public HashMap<String,Double> expandAgainstCollection(HashMap<String,Double> query, List<String> relevant,
+			double A, double B, double C, int K) {
+		int[] candidates = new int[centroids.numTerms()];
+		boolean[] seen = new boolean[candidates.length];
+		int numCandidates = candidates(relevant, seen, candidates, 0);
+
+		double[] rel = centroids.sum(relevant);
+		int numNrel = centroids.numDocs() - relevant.size();
+		double[] nrel = (C != 0 && numNrel > 0) ? centroids.complement(rel) : new double[rel.length];
+		return expand(query, rel, relevant.size(), nrel, numNrel, candidates, numCandidates, A, B, C, K);
+	}
+
+	private HashMap<String,Double> expand(HashMap<String,Double> query, double[] rel, int numRel, double[] nrel, int numNrel,
+			int[] candidates, int numCandidates, double A, double B, double C, int K) {
+		HashMap<String,Double> expanded = new HashMap<String,Double>();
+		for (String term : query.keySet()) {
+			int t = docs.getTerms().id(term);
+			double q = query.get(term).doubleValue();
+			double w = (t < 0) ? A * q : weight(q, rel[t], nrel[t], numRel, numNrel, A, B, C);
+			expanded.put(term, Double.valueOf(w));
+		}
+
+		TopKCollector top = new TopKCollector(K);
+		for (int i = 0; i < numCandidates; i++) {
+			int t = candidates[i];
+			String term = docs.getTerms().get(t);
+			if (!query.containsKey(term)) {
+				top.collect(new Document(term, weight(0.0, rel[t], nrel[t], numRel, numNrel, A, B, C)));
+			}
+		}
+		for (Document d : top.getDocuments()) {
+			expanded.put(d.getName(), Double.valueOf(d.getRank()));
+		}
+		return expanded;
+	}
+
+	//adds the terms of the documents that are not seen yet, returns the new number of candidates
+	private int candidates(List<String> feedback, boolean[] seen, int[] candidates, int count) {
+		for (String doc : feedback) {
+			SparseVector v = docs.get(doc);
+			if (v == null) {
+				continue;
+			}
+			for (int i = 0; i < v.size(); i++) {
+				int t = v.id(i);
+				if (!seen[t]) {
+					seen[t] = true;
+					candidates[count++] = t;
+				}
+			}
+		}
+		return count;
+	}
+
+	private static double weight(double q, double dRel, double dNrel, int numRel, int numNrel, double A, double B, double C) {
+		double w = A * q;
+		if (numRel > 0) {
+			w += B * (1.0 / (double) numRel) * dRel;
+		}
+		if (numNrel > 0 && C != 0) {
+			w -= C * (1.0 / (double) numNrel) * dNrel;
+		}
+		return w;
+	}
+
+	/**
+	 * Scores of the expanded query: a copy of the original query's
+	 * accumulators times A, plus the postings of every term whose new weight
+	 * is not A times its weight in the query.  Query terms that are in no
+	 * feedback document cost nothing.
+	 */
+	public ScoreAccumulator rescore(ScoreAccumulator original, HashMap<String,Double> query, HashMap<String,Double> expanded, double A) {
+		ScoreAccumulator scores = original.copy();
+		update(scores, query, expanded, A);
+		return scores;
+	}
+
+	//rescore without the copy, scores become those of the expanded query
+	public void update(ScoreAccumulator scores, HashMap<String,Double> query, HashMap<String,Double> expanded, double A) {
+		if (A != 1.0) {
+			scores.scale(A);
+		}
+		for (String term : expanded.keySet()) {
+			int t = docs.getTerms().id(term);
+			if (t < 0) {
+				continue;
+			}
+			Double before = query.get(term);
+			double delta = expanded.get(term).doubleValue() - ((before == null) ? 0.0 : A * before.doubleValue());
+			if (delta != 0.0) {
+				scores.add(t, delta);
+			}
+		}
+	}
+}
@@ -0,0 +1,74 @@
+import java.util.HashMap;
+
+/** Scores of one query, one accumulator per document id.  Only documents in
+ * the postings of an added term are touched, and they are remembered in the
+ * order they were first touched.  Kept after scoring so a feedback round can
+ * add the terms that changed instead of scoring the whole query again.
+ */
+public class ScoreAccumulator {
+	private InvertedIndex index;
+	private double[] scores;
+	private int[] touched;
+	private boolean[] seen;
+	private int numTouched;
+
+	public ScoreAccumulator(InvertedIndex index) {
+		this.index = index;
+		int numDocs = index.numDocs();
+		scores = new double[numDocs];
+		touched = new int[numDocs];
+		seen = new boolean[numDocs];
+		numTouched = 0;
+	}
+
+	//a copy that can be changed without changing this one
+	public ScoreAccumulator copy() {
+		ScoreAccumulator c = new ScoreAccumulator(index);
+		System.arraycopy(scores, 0, c.scores, 0, scores.length);
+		System.arraycopy(touched, 0, c.touched, 0, numTouched);
+		System.arraycopy(seen, 0, c.seen, 0, seen.length);
+		c.numTouched = numTouched;
+		return c;
+	}
+
+	//adds weight * the document's weight for the term to every document in its postings
+	public void add(int term, double weight) {
+		int[] docs = index.postingDocs(term);
+		double[] weights = index.postingWeights(term);
+		for (int i = 0; i < docs.length; i++) {
+			int d = docs[i];
+			if (!seen[d]) {
+				seen[d] = true;
+				touched[numTouched++] = d;
+			}
+			scores[d] += weights[i] * weight;
+		}
+	}
+
+	//multiplies every score by s
+	public void scale(double s) {
+		for (int i = 0; i < numTouched; i++) {
+			scores[touched[i]] *= s;
+		}
+	}
+
+	public double get(int doc) {
+		return scores[doc];
+	}
+
+	//number of documents touched
+	public int size() {
+		return numTouched;
+	}
+
+	//score of every touched document by name
+	public HashMap<String,Double> getRanks() {
+		HashMap<String,Double> ranks = new HashMap<String,Double>();
+		TermDictionary docs = index.getVectors().getDocs();
+		for (int i = 0; i < numTouched; i++) {
+			int d = touched[i];
+			ranks.put(docs.get(d), Double.valueOf(scores[d]));
+		}
+		return ranks;
+	}
+}
@@ -0,0 +1,96 @@
+import java.util.Arrays;
+
+/** A document vector as two parallel arrays, term ids in increasing order
+ * and their weights.  Terms that are not stored have weight 0.
+ */
+public class SparseVector {
+
+	private int[] ids;
+	private double[] weights;
+
+	//ids must already be in increasing order
+	public SparseVector(int[] ids, double[] weights) {
+		this.ids = ids;
+		this.weights = weights;
+	}
+
+	//sorts the first count pairs by term id
+	public static SparseVector sorted(int[] ids, double[] weights, int count) {
+		long[] order = new long[count];
+		for (int i = 0; i < count; i++) {
+			//id in the high bits, position in the low bits
+			order[i] = ((long) ids[i] << 32) | i;
+		}
+		Arrays.sort(order);
+
+		int[] sortedIds = new int[count];
+		double[] sortedWeights = new double[count];
+		for (int i = 0; i < count; i++) {
+			int from = (int) order[i];
+			sortedIds[i] = ids[from];
+			sortedWeights[i] = weights[from];
+		}
+		return new SparseVector(sortedIds, sortedWeights);
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	public int id(int i) {
+		return ids[i];
+	}
+
+	public double weight(int i) {
+		return weights[i];
+	}
+
+	//weight of a term id, 0 if the vector does not have it
+	public double get(int id) {
+		int i = Arrays.binarySearch(ids, id);
+		return (i >= 0) ? weights[i] : 0.0;
+	}
+
+	public boolean contains(int id) {
+		return Arrays.binarySearch(ids, id) >= 0;
+	}
+
+	//euclidean length
+	public double length() {
+		double length = 0;
+		for (int i = 0; i < weights.length; i++) {
+			length += Math.pow(weights[i], 2);
+		}
+		return Math.sqrt(length);
+	}
+
+	//same terms, every weight divided by d
+	public SparseVector divide(double d) {
+		double[] divided = new double[weights.length];
+		for (int i = 0; i < weights.length; i++) {
+			divided[i] = weights[i] / d;
+		}
+		return new SparseVector(ids, divided);
+	}
+
+	//dot product, walks both id lists once
+	public double dot(SparseVector other) {
+		double d = 0.0;
+		int i = 0;
+		int j = 0;
+		while (i < ids.length && j < other.ids.length) {
+			if (ids[i] == other.ids[j]) {
+				d += weights[i] * other.weights[j];
+				i++;
+				j++;
+			}
+			else if (ids[i] < other.ids[j]) {
+				i++;
+			}
+			else {
+				j++;
+			}
+		}
+		return d;
+	}
+}
@@ -0,0 +1,241 @@
+import java.io.IOException;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.en.PorterStemFilter;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
+
+/** Bounded LRU map from a lowercased surface form to its Porter stem.  The
+ * keys are char arrays, so looking a token up allocates nothing, and once
+ * the cache is full the least recently used form is dropped.
+ *
+ * wrap() puts a PorterStemFilter between two filters: the first replaces a
+ * cached form with its stem and marks it as a keyword so the stemmer skips
+ * it, the second remembers the stems the stemmer did compute.
+ */
+public class StemCache {
+
+	private int capacity;
+	private int size;
+	private char[][] keys;
+	private int[] keyLengths;
+	private char[][] stems;
+	private int[] stemLengths;
+	private int[] hashes;
+	//hash chains, -1 ends a chain
+	private int[] buckets;
+	private int[] chain;
+	//recency list, head is the most recently used
+	private int[] prev;
+	private int[] next;
+	private int head;
+	private int tail;
+	private long hits;
+	private long misses;
+
+	public StemCache(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		int b = 16;
+		while (b < this.capacity * 2) {
+			b <<= 1;
+		}
+		keys = new char[this.capacity][];
+		keyLengths = new int[this.capacity];
+		stems = new char[this.capacity][];
+		stemLengths = new int[this.capacity];
+		hashes = new int[this.capacity];
+		buckets = new int[b];
+		chain = new int[this.capacity];
+		prev = new int[this.capacity];
+		next = new int[this.capacity];
+		for (int i = 0; i < b; i++) {
+			buckets[i] = -1;
+		}
+		head = -1;
+		tail = -1;
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public TokenStream wrap(TokenStream input) {
+		return new Store(new PorterStemFilter(new Lookup(input)));
+	}
+
+	private static int hash(char[] buffer, int length) {
+		int h = 0;
+		for (int i = 0; i < length; i++) {
+			h = 31 * h + buffer[i];
+		}
+		return h ^ (h >>> 16);
+	}
+
+	//entry of the form, or -1; a found entry becomes the most recently used
+	private int find(char[] buffer, int length) {
+		int h = hash(buffer, length);
+		for (int e = buckets[h & (buckets.length - 1)]; e != -1; e = chain[e]) {
+			if (hashes[e] == h && keyLengths[e] == length && same(keys[e], buffer, length)) {
+				moveToFront(e);
+				return e;
+			}
+		}
+		return -1;
+	}
+
+	private void put(char[] key, int keyLength, char[] stem, int stemLength) {
+		int e;
+		if (size < capacity) {
+			e = size++;
+		}
+		else {
+			//reuse the least recently used entry
+			e = tail;
+			unlinkBucket(e);
+			unlinkRecent(e);
+		}
+
+		keys[e] = copy(keys[e], key, keyLength);
+		keyLengths[e] = keyLength;
+		stems[e] = copy(stems[e], stem, stemLength);
+		stemLengths[e] = stemLength;
+		hashes[e] = hash(key, keyLength);
+
+		int b = hashes[e] & (buckets.length - 1);
+		chain[e] = buckets[b];
+		buckets[b] = e;
+		linkFront(e);
+	}
+
+	private static char[] copy(char[] into, char[] from, int length) {
+		if (into == null || into.length < length) {
+			into = new char[Math.max(length, 8)];
+		}
+		System.arraycopy(from, 0, into, 0, length);
+		return into;
+	}
+
+	private static boolean same(char[] key, char[] buffer, int length) {
+		for (int i = 0; i < length; i++) {
+			if (key[i] != buffer[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void unlinkBucket(int e) {
+		int b = hashes[e] & (buckets.length - 1);
+		if (buckets[b] == e) {
+			buckets[b] = chain[e];
+			return;
+		}
+		for (int i = buckets[b]; i != -1; i = chain[i]) {
+			if (chain[i] == e) {
+				chain[i] = chain[e];
+				return;
+			}
+		}
+	}
+
+	private void unlinkRecent(int e) {
+		if (prev[e] != -1) {
+			next[prev[e]] = next[e];
+		}
+		else {
+			head = next[e];
+		}
+		if (next[e] != -1) {
+			prev[next[e]] = prev[e];
+		}
+		else {
+			tail = prev[e];
+		}
+	}
+
+	private void linkFront(int e) {
+		prev[e] = -1;
+		next[e] = head;
+		if (head != -1) {
+			prev[head] = e;
+		}
+		head = e;
+		if (tail == -1) {
+			tail = e;
+		}
+	}
+
+	private void moveToFront(int e) {
+		if (head != e) {
+			unlinkRecent(e);
+			linkFront(e);
+		}
+	}
+
+	//the form of the token that missed, waiting for its stem
+	private char[] pending = new char[32];
+	private int pendingLength = -1;
+
+	private final class Lookup extends TokenFilter {
+		private final CharTermAttribute term = addAttribute(CharTermAttribute.class);
+		private final KeywordAttribute keyword = addAttribute(KeywordAttribute.class);
+
+		Lookup(TokenStream input) {
+			super(input);
+		}
+
+		@Override
+		public boolean incrementToken() throws IOException {
+			if (!input.incrementToken()) {
+				return false;
+			}
+			pendingLength = -1;
+			if (keyword.isKeyword()) {
+				return true;
+			}
+
+			int e = find(term.buffer(), term.length());
+			if (e != -1) {
+				hits++;
+				term.copyBuffer(stems[e], 0, stemLengths[e]);
+				keyword.setKeyword(true);
+			}
+			else {
+				misses++;
+				pending = copy(pending, term.buffer(), term.length());
+				pendingLength = term.length();
+			}
+			return true;
+		}
+	}
+
+	private final class Store extends TokenFilter {
+		private final CharTermAttribute term = addAttribute(CharTermAttribute.class);
+
+		Store(TokenStream input) {
+			super(input);
+		}
+
+		@Override
+		public boolean incrementToken() throws IOException {
+			if (!input.incrementToken()) {
+				return false;
+			}
+			if (pendingLength != -1) {
+				put(pending, pendingLength, term.buffer(), term.length());
+				pendingLength = -1;
+			}
+			return true;
+		}
+	}
+}
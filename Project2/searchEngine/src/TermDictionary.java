@@ -0,0 +1,99 @@
+/** Interns strings into dense int ids 0, 1, 2, ... in the order they are
+ * first added.  The hash table is open addressing over plain arrays, so
+ * there is no entry object or boxed id per string.
+ */
+public class TermDictionary {
+
+	private String[] slots;
+	private int[] slotIds;
+	private String[] strings;
+	private int size;
+
+	public TermDictionary() {
+		this(16);
+	}
+
+	public TermDictionary(int expected) {
+		int capacity = 16;
+		while (capacity < expected * 2) {
+			capacity <<= 1;
+		}
+		slots = new String[capacity];
+		slotIds = new int[capacity];
+		strings = new String[Math.max(16, expected)];
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public String get(int id) {
+		return strings[id];
+	}
+
+	//id of the string, or -1 if it was never added
+	public int id(String s) {
+		int mask = slots.length - 1;
+		int slot = hash(s) & mask;
+		while (slots[slot] != null) {
+			if (slots[slot].equals(s)) {
+				return slotIds[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	//id of the string, a new one if it was not there yet
+	public int add(String s) {
+		int mask = slots.length - 1;
+		int slot = hash(s) & mask;
+		while (slots[slot] != null) {
+			if (slots[slot].equals(s)) {
+				return slotIds[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		int id = size++;
+		slots[slot] = s;
+		slotIds[slot] = id;
+		if (id == strings.length) {
+			String[] grown = new String[strings.length * 2];
+			System.arraycopy(strings, 0, grown, 0, strings.length);
+			strings = grown;
+		}
+		strings[id] = s;
+
+		//keep the table at most half full
+		if (size * 2 > slots.length) {
+			rehash(slots.length * 2);
+		}
+		return id;
+	}
+
+	private void rehash(int capacity) {
+		String[] oldSlots = slots;
+		int[] oldIds = slotIds;
+		slots = new String[capacity];
+		slotIds = new int[capacity];
+		int mask = capacity - 1;
+		for (int i = 0; i < oldSlots.length; i++) {
+			if (oldSlots[i] != null) {
+				int slot = hash(oldSlots[i]) & mask;
+				while (slots[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				slots[slot] = oldSlots[i];
+				slotIds[slot] = oldIds[i];
+			}
+		}
+	}
+
+	//spread the bits of String.hashCode, the low bits pick the slot
+	private static int hash(String s) {
+		int h = s.hashCode();
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,102 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/** Keeps the best k documents seen so far in a heap, O(n * log(k)).
+ * Ties are broken by the order the documents were collected in, so the
+ * results are the same as a stable sort of every document, or by name
+ * first, so the results do not depend on the order of a HashMap.
+ */
+public class TopKCollector {
+
+	private static class Entry {
+		Document doc;
+		int order;
+
+		Entry(Document doc, int order) {
+			this.doc = doc;
+			this.order = order;
+		}
+	}
+
+	private int k;
+	private int collected;
+	private Comparator<Entry> best;
+	private PriorityQueue<Entry> heap;
+
+	public TopKCollector(int k) {
+		this(k, false);
+	}
+
+	//byName: documents that compare the same come in name order
+	public TopKCollector(int k, final boolean byName) {
+		this.k = Math.max(0, k);
+		this.collected = 0;
+
+		final DocumentComparator dc = new DocumentComparator();
+		//best first: comparator order, then name if byName, then first collected
+		this.best = new Comparator<Entry>() {
+			@Override
+			public int compare(Entry o1, Entry o2) {
+				int c = dc.compare(o1.doc, o2.doc);
+				if (c != 0) {
+					return c;
+				}
+				if (byName) {
+					c = o1.doc.getName().compareTo(o2.doc.getName());
+					if (c != 0) {
+						return c;
+					}
+				}
+				return Integer.compare(o1.order, o2.order);
+			}
+		};
+
+		//worst document on top so it can be replaced
+		this.heap = new PriorityQueue<Entry>(Math.max(1, this.k), Collections.reverseOrder(best));
+	}
+
+	public void collect(Document d) {
+		Entry e = new Entry(d, collected);
+		collected++;
+
+		if (heap.size() < k) {
+			heap.add(e);
+		}
+		else if (k > 0 && best.compare(e, heap.peek()) < 0) {
+			heap.poll();
+			heap.add(e);
+		}
+	}
+
+	public void collectAll(Document[] docs) {
+		for (Document d : docs) {
+			collect(d);
+		}
+	}
+
+	public int size() {
+		return heap.size();
+	}
+
+	public ArrayList<Document> getDocuments() {
+		ArrayList<Entry> entries = new ArrayList<Entry>(heap);
+		Collections.sort(entries, best);
+
+		ArrayList<Document> docs = new ArrayList<Document>(entries.size());
+		for (Entry e : entries) {
+			docs.add(e.doc);
+		}
+		return docs;
+	}
+
+	public ArrayList<String> getResults() {
+		ArrayList<Document> docs = getDocuments();
+		ArrayList<String> names = new ArrayList<String>(docs.size());
+		for (Document d : docs) {
+			names.add(d.getName());
+		}
+		return names;
+	}
+}
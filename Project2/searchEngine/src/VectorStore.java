@@ -0,0 +1,114 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/** Weighted and normalized document vectors of one SMART scheme, saved next
+ * to a MappedIndex so later runs map them instead of computing them again.
+ *
+ * vectors-<scheme>: magic, version, index fingerprint, number of documents,
+ *                   number of terms, number of documents * vector offset,
+ *                   per document: number of terms, term ids, weights
+ *
+ * Term and document ids are the ids of the mapped index.  A file written for
+ * a different build of the index has another fingerprint and is ignored.
+ */
+public class VectorStore {
+
+	private static final int MAGIC = 0x4F535631;
+	private static final int VERSION = 1;
+	private static final int HEADER = 24;
+
+	public static String file(String dir, String scheme) {
+		return dir + "/vectors-" + scheme;
+	}
+
+	//dictionaries that use the ids of the mapped index
+	public static TermDictionary terms(MappedIndex index) {
+		TermDictionary terms = new TermDictionary(index.numTerms());
+		for (int i = 0; i < index.numTerms(); i++) {
+			terms.add(index.term(i));
+		}
+		return terms;
+	}
+
+	public static TermDictionary docs(MappedIndex index) {
+		TermDictionary docs = new TermDictionary(index.size());
+		for (int i = 0; i < index.size(); i++) {
+			docs.add(index.docName(i));
+		}
+		return docs;
+	}
+
+	/**
+	 * The saved vectors of the scheme, or null if there are none or they
+	 * were written for another index.
+	 */
+	public static DocVectors load(String dir, String scheme, MappedIndex index) throws IOException {
+		File f = new File(file(dir, scheme));
+		if (!f.isFile()) {
+			return null;
+		}
+
+		//under 2 GB, so the offsets fit in an int
+		MappedByteBuffer buffer = MappedIndex.map(f.getPath());
+		if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+				|| buffer.getLong(8) != index.fingerprint() || buffer.getInt(16) != index.size()
+				|| buffer.getInt(20) != index.numTerms()) {
+			return null;
+		}
+
+		int numDocs = index.size();
+		SparseVector[] vectors = new SparseVector[numDocs];
+		for (int d = 0; d < numDocs; d++) {
+			int position = (int) buffer.getLong(HEADER + d * 8);
+			int count = buffer.getInt(position);
+			int[] ids = new int[count];
+			double[] weights = new double[count];
+
+			ByteBuffer b = buffer.duplicate();
+			b.position(position + 4);
+			b.asIntBuffer().get(ids);
+			b.position(position + 4 + count * 4);
+			b.asDoubleBuffer().get(weights);
+			vectors[d] = new SparseVector(ids, weights);
+		}
+		return new DocVectors(terms(index), docs(index), vectors);
+	}
+
+	//vectors must use the ids of the index, as getDocVector gives them for a mapped index
+	public static void write(String dir, String scheme, MappedIndex index, DocVectors vectors) throws IOException {
+		int numDocs = vectors.size();
+		long size = HEADER + numDocs * 8L;
+		for (int d = 0; d < numDocs; d++) {
+			size += 4 + vectors.get(d).size() * 12L;
+		}
+		MappedIndex.checkSize(size, file(dir, scheme));
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file(dir, scheme))))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(index.fingerprint());
+			out.writeInt(numDocs);
+			out.writeInt(index.numTerms());
+
+			long position = HEADER + numDocs * 8L;
+			for (int d = 0; d < numDocs; d++) {
+				out.writeLong(position);
+				position += 4 + vectors.get(d).size() * 12L;
+			}
+			for (int d = 0; d < numDocs; d++) {
+				SparseVector v = vectors.get(d);
+				out.writeInt(v.size());
+				for (int i = 0; i < v.size(); i++) {
+					out.writeInt(v.id(i));
+				}
+				for (int i = 0; i < v.size(); i++) {
+					out.writeDouble(v.weight(i));
+				}
+			}
+		}
+	}
+}